@@ -1,16 +1,21 @@
 package io.sesam.datasources;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import com.google.gson.stream.JsonReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.stream.JsonWriter;
-
 import spark.Spark;
 
 public class App {
@@ -31,20 +36,75 @@ public class App {
             }   
         }); 
 
-        Spark.get("/:system/:source", (req, res) -> {
+        serve(mapper);
+        mapper.warmUp();
+        log.info("Ready");
+    }
+
+    public static void serve(Mapper mapper) {
+        Spark.get("/_ready", (req, res) -> {
             res.type("application/json; charset=utf-8");
+            if (!mapper.isReady()) {
+                Spark.halt(503, "{\"ready\": false}\n");
+            }
+            return "{\"ready\": true}\n";
+        });
+
+        Spark.get("/:system/:source", (req, res) -> {
             String systemId = req.params("system");
             String sourceId = req.params("source");
             String since = req.queryParams("since");
-            
+            List<String> columns = new ArrayList<>();
+            String columnsParam = req.queryParams("columns");
+            if (columnsParam != null) {
+                for (String column : columnsParam.split(",")) {
+                    if (!column.trim().isEmpty()) {
+                        columns.add(column.trim());
+                    }
+                }
+            }
+            Map<String,String> filters = new LinkedHashMap<>();
+            for (String param : req.queryParams()) {
+                if (param.startsWith("filter.")) {
+                    filters.put(param.substring("filter.".length()), req.queryParams(param));
+                }
+            }
+
             if (!mapper.isValidSource(systemId, sourceId)) {
                 Spark.halt(404, "Unknown system/source pair.\n");
             }
             try {
-                Writer writer = new OutputStreamWriter(res.raw().getOutputStream(), "utf-8");
-                JsonWriter jsonWriter = new JsonWriter(writer);
-                mapper.writeEntities(jsonWriter, systemId, sourceId, since);
-                jsonWriter.flush();
+                EntityEncoder encoder;
+                String accept = req.headers("Accept");
+                if (accept != null && accept.contains(BinaryEntityEncoder.CONTENT_TYPE)) {
+                    encoder = new BinaryEntityEncoder(new BufferedOutputStream(res.raw().getOutputStream()));
+                } else {
+                    Writer writer = new OutputStreamWriter(res.raw().getOutputStream(), "utf-8");
+                    encoder = new JsonEntityEncoder(writer);
+                }
+                res.type(encoder.getContentType());
+                try {
+                    mapper.writeEntities(encoder, systemId, sourceId, since, columns, filters);
+                } catch (DisconnectedException e) {
+                    log.info("Client disconnected from " + systemId + "/" + sourceId);
+                } catch (Exception e) {
+                    if (!res.raw().isCommitted()) {
+                        res.raw().resetBuffer();
+                        throw e;
+                    }
+                    // too late to change the status code, so tell the client in the stream instead
+                    log.error("Got exception after the response was committed", e);
+                    try {
+                        encoder.error(e.getMessage() != null ? e.getMessage() : e.toString());
+                    } catch (IOException ioe) {
+                        log.info("Not able to write error to client: " + ioe.getMessage());
+                    }
+                }
+            } catch (IllegalArgumentException | InvalidSinceException e) {
+                Spark.halt(400, e.getMessage() + "\n");
+            } catch (Scheduler.RejectedException e) {
+                res.header("Retry-After", Long.toString(e.getRetryAfter()));
+                Spark.halt(429, e.getMessage() + "\n");
             } catch (Exception e) {
                 log.error("Got exception", e);
                 Spark.halt(500);
@@ -61,10 +121,41 @@ public class App {
             if (!mapper.isValidSink(systemId, sinkId)) {
                 Spark.halt(404, "Unknown system/sink pair.\n");
             }
+            String contentType = req.contentType();
+            if (contentType != null && (contentType.startsWith("application/x-ndjson") || contentType.startsWith("application/ndjson"))) {
+                long offset = 0;
+                if (req.queryParams("offset") != null) {
+                    try {
+                        offset = Long.parseLong(req.queryParams("offset"));
+                    } catch (NumberFormatException e) {
+                        Spark.halt(400, "Invalid offset.\n");
+                    }
+                    if (offset < 0) {
+                        Spark.halt(400, "Invalid offset.\n");
+                    }
+                }
+                try {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(req.raw().getInputStream(), "utf-8"));
+                    long committed = mapper.readLines(reader, systemId, sinkId, isFull, offset);
+                    return "{\"offset\": " + committed + "}\n";
+                } catch (Scheduler.RejectedException e) {
+                    res.header("Retry-After", Long.toString(e.getRetryAfter()));
+                    Spark.halt(429, "{\"offset\": " + offset + "}\n");
+                } catch (LineOffsetException e) {
+                    log.error("Got exception", e);
+                    Spark.halt(500, "{\"offset\": " + e.getOffset() + "}\n");
+                } catch (Exception e) {
+                    log.error("Got exception", e);
+                    Spark.halt(500, "{\"offset\": " + offset + "}\n");
+                }
+            }
             try {
                 Reader reader = new InputStreamReader(req.raw().getInputStream(), "utf-8");
                 JsonReader jsonReader = new JsonReader(reader);
                 mapper.readEntities(jsonReader, systemId, sinkId, isFull);
+            } catch (Scheduler.RejectedException e) {
+                res.header("Retry-After", Long.toString(e.getRetryAfter()));
+                Spark.halt(429, e.getMessage() + "\n");
             } catch (Exception e) {
                 log.error("Got exception", e);
                 Spark.halt(500);
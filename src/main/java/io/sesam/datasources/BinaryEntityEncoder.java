@@ -0,0 +1,470 @@
+package io.sesam.datasources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+
+/**
+ * Writes entities in a length-prefixed binary format for bulk consumers that do not want to parse JSON.
+ *
+ * <pre>
+ * stream := "SJR" version:byte columnCount:int (name:utf type:int)* frame* (end:int(0) | error:int(-1) message:utf)
+ * frame  := length:int rowCount:int row*
+ * row    := (present:byte value?)*
+ * </pre>
+ *
+ * The frame length is the number of bytes of its rows, so a length of 0 marks the end of the stream. A length of
+ * -1 marks a stream that failed after some rows were written, and is followed by the error message.
+ * The first column is always _id, followed by _updated if the source has an updated column, and then the
+ * columns of the result set. Column types are java.sql.Types, and values are encoded with {@link DataOutputStream}:
+ * integers as int, BIGINT as long, floating point numbers as float or double, booleans as a byte, decimals as
+ * scale:int length:int unscaled-bytes, dates as epoch day:long, times as nano of day:long, timestamps as epoch
+ * second:long nano:int (UTC), strings and character large objects as length:int UTF-8 bytes and binary values as
+ * length:int bytes. Values are buffered per cell since their length is written first, so large object columns,
+ * i.e. BLOB, CLOB, LONGVARBINARY, LONGVARCHAR and LONGNVARCHAR, are only returned when the source has a cell
+ * limit that bounds the buffer.
+ */
+public class BinaryEntityEncoder implements EntityEncoder {
+
+    public static final String CONTENT_TYPE = "application/vnd.sesam.jdbc-rows";
+
+    static final int VERSION = 1;
+    static final int MAX_FRAME_ROWS = 1000;
+    static final int MAX_FRAME_BYTES = 1024 * 1024;
+
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream frameBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream frame = new DataOutputStream(frameBuffer);
+    private int frameRows;
+    private int frameRowBytes;
+    private String[] colNames;
+    private int[] colTypes;
+    private int updatedIndex;
+    private CellLimit cellLimit;
+    private final ByteArrayOutputStream cellBuffer = new ByteArrayOutputStream();
+    private final Writer cellWriter = new OutputStreamWriter(cellBuffer, StandardCharsets.UTF_8);
+    private final byte[] bytes = new byte[8192];
+    private final char[] chars = new char[8192];
+    private EntityKeys keys;
+
+    public BinaryEntityEncoder(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public void begin(String[] colNames, int[] colTypes, int[] pkIndexes, int updatedIndex, CellLimit cellLimit) throws SQLException, IOException {
+        for (int i=0; i < colTypes.length; i++) {
+            if (!isSupported(colTypes[i])) {
+                throw new SQLException("Unsupported column type: " + colNames[i] + " " + colTypes[i]);
+            }
+            if (isLargeObject(colTypes[i]) && !cellLimit.isLimited()) {
+                throw new IllegalArgumentException("The binary format needs a max-cell-size on the source to return column: " + colNames[i]);
+            }
+        }
+        this.colNames = colNames;
+        this.colTypes = colTypes;
+        this.updatedIndex = updatedIndex;
+        this.cellLimit = cellLimit;
+        this.keys = new EntityKeys(colTypes, pkIndexes, updatedIndex);
+
+        out.writeBytes("SJR");
+        out.writeByte(VERSION);
+        out.writeInt(colNames.length + (updatedIndex > 0 ? 2 : 1));
+        out.writeUTF("_id");
+        out.writeInt(java.sql.Types.VARCHAR);
+        if (updatedIndex > 0) {
+            out.writeUTF("_updated");
+            out.writeInt(java.sql.Types.VARCHAR);
+        }
+        for (int i=0; i < colNames.length; i++) {
+            out.writeUTF(colNames[i]);
+            out.writeInt(colTypes[i]);
+        }
+    }
+
+    @Override
+    public void writeEntity(ResultSet rs) throws SQLException, IOException {
+        keys.read(rs);
+        cellBuffer.reset();
+        keys.writeId(cellWriter, false);
+        cellWriter.flush();
+        writeCellBuffer();
+        if (updatedIndex > 0) {
+            if (keys.isUpdatedNull()) {
+                frame.writeByte(0);
+            } else {
+                cellBuffer.reset();
+                keys.writeUpdated(cellWriter, false);
+                cellWriter.flush();
+                writeCellBuffer();
+            }
+        }
+        for (int i=1; i < colNames.length+1; i++) {
+            writeValue(rs, i, colTypes[i-1]);
+        }
+        frameRows++;
+        frameRowBytes = frameBuffer.size();
+        if (frameRows >= MAX_FRAME_ROWS || frameBuffer.size() >= MAX_FRAME_BYTES) {
+            flushFrame();
+        }
+    }
+
+    @Override
+    public void end() throws IOException {
+        flushFrame();
+        out.writeInt(0);
+        out.flush();
+    }
+
+    @Override
+    public void error(String message) throws IOException {
+        if (frameBuffer.size() > frameRowBytes) {
+            // leave out the row that failed
+            byte[] rows = frameBuffer.toByteArray();
+            frameBuffer.reset();
+            frameBuffer.write(rows, 0, frameRowBytes);
+        }
+        flushFrame();
+        out.writeInt(-1);
+        out.writeUTF(message.length() > 1000 ? message.substring(0, 1000) : message);
+        out.flush();
+    }
+
+    private void flushFrame() throws IOException {
+        if (frameRows == 0) {
+            return;
+        }
+        frame.flush();
+        out.writeInt(frameBuffer.size());
+        out.writeInt(frameRows);
+        frameBuffer.writeTo(out);
+        frameBuffer.reset();
+        frameRows = 0;
+        frameRowBytes = 0;
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            frame.writeByte(0);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            frame.writeByte(1);
+            frame.writeInt(bytes.length);
+            frame.write(bytes);
+        }
+    }
+
+    private void writeValue(ResultSet rs, int i, int colType) throws SQLException, IOException {
+        int slot = keys.getSlot(i);
+        if (slot >= 0) {
+            // primary key value already read for _id
+            if (keys.isNull(slot)) {
+                frame.writeByte(0);
+            } else if (keys.isLong(slot)) {
+                frame.writeByte(1);
+                if (colType == java.sql.Types.BIGINT) {
+                    frame.writeLong(keys.getLong(slot));
+                } else {
+                    frame.writeInt((int) keys.getLong(slot));
+                }
+            } else {
+                writeString(keys.getString(slot));
+            }
+            return;
+        }
+        switch (colType) {
+        case java.sql.Types.BIGINT: {
+            long value = rs.getLong(i);
+            if (!writePresence(rs)) {
+                frame.writeLong(value);
+            }
+            break;
+        }
+        case java.sql.Types.BIT:
+        case java.sql.Types.BOOLEAN: {
+            boolean value = rs.getBoolean(i);
+            if (!writePresence(rs)) {
+                frame.writeBoolean(value);
+            }
+            break;
+        }
+        case java.sql.Types.INTEGER:
+        case java.sql.Types.SMALLINT:
+        case java.sql.Types.TINYINT: {
+            int value = rs.getInt(i);
+            if (!writePresence(rs)) {
+                frame.writeInt(value);
+            }
+            break;
+        }
+        case java.sql.Types.DOUBLE: {
+            double value = rs.getDouble(i);
+            if (!writePresence(rs)) {
+                frame.writeDouble(value);
+            }
+            break;
+        }
+        case java.sql.Types.FLOAT:
+        case java.sql.Types.REAL: {
+            float value = rs.getFloat(i);
+            if (!writePresence(rs)) {
+                frame.writeFloat(value);
+            }
+            break;
+        }
+        case java.sql.Types.DECIMAL:
+        case java.sql.Types.NUMERIC: {
+            BigDecimal value = rs.getBigDecimal(i);
+            if (!writePresence(rs)) {
+                byte[] unscaled = value.unscaledValue().toByteArray();
+                frame.writeInt(value.scale());
+                frame.writeInt(unscaled.length);
+                frame.write(unscaled);
+            }
+            break;
+        }
+        case java.sql.Types.DATE: {
+            Date value = rs.getDate(i);
+            if (!writePresence(rs)) {
+                frame.writeLong(value.toLocalDate().toEpochDay());
+            }
+            break;
+        }
+        case java.sql.Types.TIME: {
+            Time value = rs.getTime(i);
+            if (!writePresence(rs)) {
+                frame.writeLong(value.toLocalTime().toNanoOfDay());
+            }
+            break;
+        }
+        case java.sql.Types.TIME_WITH_TIMEZONE: {
+            Time value = rs.getTime(i, DataSystem.UTC_CALENDAR);
+            if (!writePresence(rs)) {
+                frame.writeLong(value.toLocalTime().toNanoOfDay());
+            }
+            break;
+        }
+        case java.sql.Types.TIMESTAMP: {
+            Timestamp value = rs.getTimestamp(i);
+            if (!writePresence(rs)) {
+                frame.writeLong(value.toInstant().getEpochSecond());
+                frame.writeInt(value.getNanos());
+            }
+            break;
+        }
+        case java.sql.Types.TIMESTAMP_WITH_TIMEZONE: {
+            Timestamp value = rs.getTimestamp(i, DataSystem.UTC_CALENDAR);
+            if (!writePresence(rs)) {
+                frame.writeLong(value.toInstant().getEpochSecond());
+                frame.writeInt(value.getNanos());
+            }
+            break;
+        }
+        case java.sql.Types.NCHAR:
+        case java.sql.Types.NVARCHAR: {
+            writeString(rs.getNString(i));
+            break;
+        }
+        case java.sql.Types.CHAR:
+        case java.sql.Types.VARCHAR:
+        case java.sql.Types.SQLXML: {
+            writeString(rs.getString(i));
+            break;
+        }
+        case java.sql.Types.BINARY:
+        case java.sql.Types.VARBINARY:
+        case java.sql.Types.LONGVARBINARY: {
+            writeBinary(rs.getBinaryStream(i));
+            break;
+        }
+        case java.sql.Types.BLOB: {
+            Blob blob = rs.getBlob(i);
+            if (blob == null) {
+                frame.writeByte(0);
+            } else if (cellLimit.isSkip() && cellLimit.isExceeded(blob.length())) {
+                blob.free();
+                frame.writeByte(0);
+            } else {
+                try {
+                    writeBinary(blob.getBinaryStream());
+                } finally {
+                    blob.free();
+                }
+            }
+            break;
+        }
+        case java.sql.Types.LONGVARCHAR: {
+            writeCharacters(rs.getCharacterStream(i));
+            break;
+        }
+        case java.sql.Types.LONGNVARCHAR: {
+            writeCharacters(rs.getNCharacterStream(i));
+            break;
+        }
+        case java.sql.Types.CLOB: {
+            Clob clob = rs.getClob(i);
+            if (clob == null) {
+                frame.writeByte(0);
+            } else if (cellLimit.isSkip() && cellLimit.isExceeded(clob.length())) {
+                clob.free();
+                frame.writeByte(0);
+            } else {
+                try {
+                    writeCharacters(clob.getCharacterStream());
+                } finally {
+                    clob.free();
+                }
+            }
+            break;
+        }
+        case java.sql.Types.NULL: {
+            frame.writeByte(0);
+            break;
+        }
+        default:
+            throw new SQLException("Unsupported column type: " + colNames[i-1] + " " + colType);
+        }
+    }
+
+    /**
+     * Writes the value as length:int bytes. The value is read into a cell buffer first since its length is
+     * needed up front, but never more than the cell limit. Since the cell buffer and the frame are in memory, any
+     * {@link IOException} comes from reading the value and is thrown as a {@link SQLException}.
+     */
+    private void writeBinary(InputStream in) throws SQLException {
+        try (InputStream value = in) {
+            if (value == null) {
+                frame.writeByte(0);
+                return;
+            }
+            cellBuffer.reset();
+            long remaining = cellLimit.getReadLimit();
+            int n;
+            while (remaining > 0 && (n = value.read(bytes, 0, (int) Math.min(bytes.length, remaining))) != -1) {
+                cellBuffer.write(bytes, 0, n);
+                remaining -= n;
+            }
+            if (cellLimit.isSkip() && cellLimit.isExceeded(cellBuffer.size())) {
+                frame.writeByte(0);
+            } else {
+                writeCellBuffer();
+            }
+        } catch (IOException e) {
+            throw new SQLException("Not able to read large object: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the value as length:int UTF-8 bytes, read through the cell buffer like {@link #writeBinary}.
+     */
+    private void writeCharacters(Reader in) throws SQLException {
+        try (Reader value = in) {
+            if (value == null) {
+                frame.writeByte(0);
+                return;
+            }
+            cellBuffer.reset();
+            long limit = cellLimit.getReadLimit();
+            long read = 0;
+            int n;
+            while (read < limit && (n = value.read(chars, 0, (int) Math.min(chars.length, limit - read))) != -1) {
+                read += n;
+                if (read == limit && Character.isHighSurrogate(chars[n-1])) {
+                    // truncated, but not in the middle of a surrogate pair
+                    n--;
+                }
+                cellWriter.write(chars, 0, n);
+            }
+            cellWriter.flush();
+            if (cellLimit.isSkip() && cellLimit.isExceeded(read)) {
+                frame.writeByte(0);
+            } else {
+                writeCellBuffer();
+            }
+        } catch (IOException e) {
+            throw new SQLException("Not able to read large object: " + e.getMessage(), e);
+        }
+    }
+
+    private void writeCellBuffer() throws IOException {
+        frame.writeByte(1);
+        frame.writeInt(cellBuffer.size());
+        cellBuffer.writeTo(frame);
+    }
+
+    /**
+     * Writes the presence byte of the value just read.
+     *
+     * @return true if the value was null
+     */
+    private boolean writePresence(ResultSet rs) throws SQLException, IOException {
+        if (rs.wasNull()) {
+            frame.writeByte(0);
+            return true;
+        } else {
+            frame.writeByte(1);
+            return false;
+        }
+    }
+
+    private static boolean isLargeObject(int colType) {
+        return colType == java.sql.Types.BLOB || colType == java.sql.Types.CLOB || colType == java.sql.Types.LONGVARBINARY
+                || colType == java.sql.Types.LONGVARCHAR || colType == java.sql.Types.LONGNVARCHAR;
+    }
+
+    private static boolean isSupported(int colType) {
+        switch (colType) {
+        case java.sql.Types.BIGINT:
+        case java.sql.Types.BIT:
+        case java.sql.Types.BOOLEAN:
+        case java.sql.Types.INTEGER:
+        case java.sql.Types.SMALLINT:
+        case java.sql.Types.TINYINT:
+        case java.sql.Types.DOUBLE:
+        case java.sql.Types.FLOAT:
+        case java.sql.Types.REAL:
+        case java.sql.Types.DECIMAL:
+        case java.sql.Types.NUMERIC:
+        case java.sql.Types.DATE:
+        case java.sql.Types.TIME:
+        case java.sql.Types.TIME_WITH_TIMEZONE:
+        case java.sql.Types.TIMESTAMP:
+        case java.sql.Types.TIMESTAMP_WITH_TIMEZONE:
+        case java.sql.Types.NCHAR:
+        case java.sql.Types.NVARCHAR:
+        case java.sql.Types.CHAR:
+        case java.sql.Types.VARCHAR:
+        case java.sql.Types.SQLXML:
+        case java.sql.Types.BINARY:
+        case java.sql.Types.VARBINARY:
+        case java.sql.Types.LONGVARBINARY:
+        case java.sql.Types.BLOB:
+        case java.sql.Types.LONGVARCHAR:
+        case java.sql.Types.LONGNVARCHAR:
+        case java.sql.Types.CLOB:
+        case java.sql.Types.NULL:
+            return true;
+        default:
+            return false;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package io.sesam.datasources;
+
+/**
+ * Size limit for binary and character large object cells, in bytes or characters. Oversized values are either
+ * truncated or skipped, i.e. written as null. Characters are UTF-16 chars, and a value is not truncated in the middle
+ * of a surrogate pair, so it can end up one character shorter than the limit.
+ */
+public class CellLimit {
+
+    public static final CellLimit UNLIMITED = new CellLimit(0, false);
+
+    private final long maxSize;
+    private final boolean skip;
+
+    /**
+     * @param maxSize the maximum size, or 0 if there is no limit
+     * @param skip true if oversized values should be written as null instead of being truncated
+     */
+    public CellLimit(long maxSize, boolean skip) {
+        this.maxSize = maxSize;
+        this.skip = skip && maxSize > 0;
+    }
+
+    public boolean isLimited() {
+        return maxSize > 0;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public boolean isSkip() {
+        return skip;
+    }
+
+    public boolean isExceeded(long size) {
+        return maxSize > 0 && size > maxSize;
+    }
+
+    /**
+     * @return the number of bytes or characters to read from a value
+     */
+    public long getReadLimit() {
+        if (maxSize == 0) {
+            return Long.MAX_VALUE;
+        }
+        // read one more to be able to tell that the value is oversized
+        return skip ? maxSize + 1 : maxSize;
+    }
+
+}
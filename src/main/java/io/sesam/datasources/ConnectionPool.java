@@ -0,0 +1,158 @@
+package io.sesam.datasources;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.pool.HikariPool;
+
+/**
+ * A physical connection pool shared by the systems that connect to the same database with the same credentials
+ * and driver properties, so that the number of database sessions does not grow with the number of systems. Each
+ * system gets a {@link Quota} that limits how many of the pooled connections it can use at the same time and
+ * keeps its own {@link ConnectionStats}. The pool is closed when the last quota is closed.
+ */
+public class ConnectionPool {
+
+    private final HikariConfig config;
+    private final HikariPool pool;
+    private final long connectionTimeout;
+    private int references;
+
+    /**
+     * The connection timeout of the config is the maximum time to wait for a connection, including the wait for
+     * the quota. The pool is used directly instead of through a HikariDataSource, since only the pool takes a
+     * timeout per call, so that the pool only gets the time the quota left.
+     */
+    public ConnectionPool(HikariConfig config) {
+        config.validate();
+        this.config = config;
+        this.pool = new HikariPool(config);
+        this.connectionTimeout = config.getConnectionTimeout();
+    }
+
+    /**
+     * @return the key of the pool for the connection settings, equal for systems that can share a pool
+     */
+    public static String key(String jdbcUrl, String username, String password, Map<String,String> properties) {
+        return jdbcUrl + "\0" + username + "\0" + password + "\0" + new TreeMap<>(properties);
+    }
+
+    /**
+     * @param maxConnections the maximum number of connections the system can use at the same time, at most the
+     *                       size of the pool
+     */
+    public synchronized Quota newQuota(String systemId, int maxConnections) {
+        references++;
+        return new Quota(systemId, Math.min(maxConnections, config.getMaximumPoolSize()));
+    }
+
+    private synchronized void release() {
+        if (--references == 0) {
+            try {
+                pool.shutdown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public class Quota implements AutoCloseable {
+
+        private final String systemId;
+        private final int maxConnections;
+        private final Semaphore permits;
+        private final ConnectionStats stats = new ConnectionStats();
+        private boolean closed;
+
+        private Quota(String systemId, int maxConnections) {
+            this.systemId = systemId;
+            this.maxConnections = maxConnections;
+            this.permits = new Semaphore(maxConnections, true);
+        }
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        /**
+         * @return the number of connections to open at warm-up
+         */
+        public int getMinimumIdle() {
+            return Math.min(config.getMinimumIdle(), maxConnections);
+        }
+
+        public ConnectionStats getStats() {
+            return stats;
+        }
+
+        /**
+         * @return a pooled connection that gives back its quota slot when it is closed
+         */
+        public Connection getConnection() throws SQLException {
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(connectionTimeout);
+            try {
+                if (!permits.tryAcquire(connectionTimeout, TimeUnit.MILLISECONDS)) {
+                    throw new SQLTransientConnectionException("All " + maxConnections + " connections of system "
+                            + systemId + " are in use");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stats.recordFailed();
+                throw new SQLTransientConnectionException("Interrupted while waiting for a connection", e);
+            } catch (SQLException e) {
+                stats.recordFailed();
+                throw e;
+            }
+            Connection conn;
+            try {
+                // whatever the quota wait left of the timeout, at least one attempt at an idle connection
+                conn = pool.getConnection(Math.max(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()), 0));
+            } catch (SQLException | RuntimeException e) {
+                permits.release();
+                stats.recordFailed();
+                throw e;
+            }
+            stats.recordAcquired(System.nanoTime() - start);
+            return releasingQuota(conn);
+        }
+
+        private Connection releasingQuota(Connection conn) {
+            AtomicBoolean released = new AtomicBoolean();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                    (proxy, method, args) -> {
+                        if ("close".equals(method.getName()) && method.getParameterCount() == 0
+                                && released.compareAndSet(false, true)) {
+                            try {
+                                conn.close();
+                            } finally {
+                                permits.release();
+                            }
+                            return null;
+                        }
+                        try {
+                            return method.invoke(conn, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                release();
+            }
+        }
+    }
+}
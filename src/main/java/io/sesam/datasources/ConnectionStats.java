@@ -0,0 +1,49 @@
+package io.sesam.datasources;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how long requests wait for a connection from the pool of a system.
+ */
+public class ConnectionStats {
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    void recordAcquired(long waitNanos) {
+        acquired.increment();
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    void recordFailed() {
+        failed.increment();
+    }
+
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public double getMeanWaitMillis() {
+        long count = acquired.sum();
+        return count > 0 ? totalWaitNanos.sum() / (double) count / TimeUnit.MILLISECONDS.toNanos(1) : 0;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("acquired=%d failed=%d mean-wait=%.2fms max-wait=%.2fms",
+                getAcquired(), getFailed(), getMeanWaitMillis(), getMaxWaitMillis());
+    }
+}
@@ -1,63 +1,163 @@
 package io.sesam.datasources;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.sql.Connection;
-import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.sql.Time;
-import java.sql.Timestamp;
-import java.time.format.DateTimeFormatter;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.gson.stream.JsonReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.stream.JsonWriter;
-import com.zaxxer.hikari.HikariDataSource;
-
 public class DataSystem implements AutoCloseable {
 
     static Logger log = LoggerFactory.getLogger(DataSystem.class);
 
     static Calendar UTC_CALENDAR = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
 
-    private final HikariDataSource ds;
+    // cancels reads that run longer than the query timeout of their source
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "query-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ConnectionPool.Quota pool;
     private final Map<String, Source> sources;
     private final Map<String, Sink> sinks;
+    private final SchemaCache schemaCache;
+    private final Scheduler scheduler;
+    private final int warmUpRows;
+    private final int warmUpIterations;
+    private final Map<String,Integer> updatedColumnTypes = new ConcurrentHashMap<>();
 
-    public DataSystem(HikariDataSource ds, Map<String,Source> sources, Map<String, Sink> sinks) {
-        this.ds = ds;
+    /**
+     * @param warmUpRows the number of rows each source reads at warm-up, or 0 for no warm-up
+     * @param warmUpIterations the number of times each source is read at warm-up
+     */
+    public DataSystem(ConnectionPool.Quota pool, Map<String,Source> sources, Map<String, Sink> sinks, SchemaCache schemaCache, Scheduler scheduler,
+            int warmUpRows, int warmUpIterations) {
+        this.pool = pool;
         this.sources = sources;
         this.sinks = sinks;
+        this.schemaCache = schemaCache;
+        this.scheduler = scheduler;
+        this.warmUpRows = warmUpRows;
+        this.warmUpIterations = warmUpIterations;
     }
 
     @Override
     public void close() throws Exception {
-        ds.close();
+        pool.close();
     }
 
-    public void writeEntities(JsonWriter jw, String sourceId, String since) throws SQLException, IOException {
+    public void writeEntities(EntityEncoder encoder, String sourceId, String since, List<String> columns, Map<String,String> filters) throws SQLException, IOException, InvalidSinceException, Scheduler.RejectedException {
         Source source = this.sources.get(sourceId);
         if (source == null) {
             throw new RuntimeException("Unknown source: " + sourceId);
         }
-        String query = source.getQuery(since);
-        log.info("Query: " + query + (since != null ? " Parameters: \"" + since + "\"": ""));
-        Connection conn = ds.getConnection();
+        Scheduler.Permit permit = scheduler.acquire(sourceEndpoint(sourceId));
         try {
+            writeEntities(encoder, sourceId, source, since, columns, filters);
+        } finally {
+            permit.close();
+        }
+    }
+
+    private void writeEntities(EntityEncoder encoder, String sourceId, Source source, String since, List<String> columns,
+            Map<String,String> filters) throws SQLException, IOException, InvalidSinceException {
+        List<String> selectColumns = new ArrayList<>();
+        List<String> filterColumns = new ArrayList<>();
+        List<String> filterValues = new ArrayList<>();
+        if (!columns.isEmpty() || !filters.isEmpty()) {
+            List<String> knownColumns = source.getColumnNames();
+            if (knownColumns == null && source.getTable() != null) {
+                // only read the catalog for table sources that are actually projected or filtered
+                try (Connection conn = getConnection()) {
+                    source.configure(TableMetadata.read(conn, source.getTable()));
+                }
+                knownColumns = source.getColumnNames();
+            }
+            if (knownColumns == null) {
+                throw new IllegalArgumentException("Columns and filters are not supported on source: " + sourceId);
+            }
+            for (String column : columns) {
+                selectColumns.add(resolveColumn(knownColumns, column));
+            }
+            if (!selectColumns.isEmpty()) {
+                // _id and _updated are always needed
+                for (String pk : source.getPrimaryKeys()) {
+                    if (!selectColumns.contains(pk)) {
+                        selectColumns.add(pk);
+                    }
+                }
+                String updatedColumn = source.getUpdatedColumn();
+                if (updatedColumn != null && !selectColumns.contains(updatedColumn)) {
+                    selectColumns.add(updatedColumn);
+                }
+            }
+            for (Map.Entry<String, String> filter : filters.entrySet()) {
+                filterColumns.add(resolveColumn(knownColumns, filter.getKey()));
+                filterValues.add(filter.getValue());
+            }
+        }
+        String query = source.getQuery(since, selectColumns, filterColumns);
+        log.info("Query: " + query + (since != null ? " Parameters: \"" + since + "\"": "")
+                + (!filterValues.isEmpty() ? " Filters: " + filterValues : ""));
+        writeEntities(encoder, sourceId, source, query, since, filterColumns, filterValues, 0);
+    }
+
+    private void writeEntities(EntityEncoder encoder, String sourceId, Source source, String query, String since,
+            List<String> filterColumns, List<String> filterValues, int maxRows) throws SQLException, IOException, InvalidSinceException {
+        Connection conn = getConnection();
+        try (ReadSettings.Transaction tx = source.getReadSettings().begin(conn)) {
             PreparedStatement stmt = conn.prepareStatement(query);
-            if (since != null) {
-                stmt.setString(1, since);
+            AtomicBoolean timedOut = new AtomicBoolean();
+            ScheduledFuture<?> watchdog = null;
+            if (source.getQueryTimeout() > 0) {
+                watchdog = WATCHDOG.schedule(() -> {
+                    timedOut.set(true);
+                    cancel(stmt);
+                }, source.getQueryTimeout(), TimeUnit.SECONDS);
             }
             try {
+                if (maxRows > 0) {
+                    stmt.setMaxRows(maxRows);
+                }
+                int paramIndex = 1;
+                // without a since parameter the filter parameters start at the first index
+                if (since != null && source.hasSinceParameter()) {
+                    Integer updatedType = getUpdatedColumnType(sourceId, source, stmt);
+                    try {
+                        ParameterBinder.bind(stmt, paramIndex++, updatedType, since);
+                    } catch (IllegalArgumentException e) {
+                        throw new InvalidSinceException("Invalid since: " + since, e);
+                    }
+                }
+                for (int i=0; i < filterValues.size(); i++) {
+                    ParameterBinder.bind(stmt, paramIndex++, source.getColumnType(filterColumns.get(i)), filterValues.get(i));
+                }
                 ResultSet rs = stmt.executeQuery();
                 try {
                     ResultSetMetaData rsmd = rs.getMetaData();
@@ -71,6 +171,10 @@ public class DataSystem implements AutoCloseable {
                         colIndexes.put(colNames[i], i+1);
 //                        log.info("" + colNames[i] + " " + colTypes[i]);
                     }
+                    String updatedColumn = source.getUpdatedColumn();
+                    if (updatedColumn != null && colIndexes.containsKey(updatedColumn)) {
+                        updatedColumnTypes.put(sourceId, colTypes[colIndexes.get(updatedColumn)-1]);
+                    }
 
                     List<String> primaryKeys = source.getPrimaryKeys();
                     int[] pkIndexes = new int[primaryKeys.size()];
@@ -84,7 +188,6 @@ public class DataSystem implements AutoCloseable {
                     }
                     log.info("Primary key: " + primaryKeys);
                     int updatedIndex = 0;
-                    String updatedColumn = source.getUpdatedColumn();
                     if (updatedColumn != null) {
                         if (!colIndexes.containsKey(updatedColumn)) {
                             throw new RuntimeException("Not able to find updated-column: " + updatedColumn);
@@ -92,234 +195,218 @@ public class DataSystem implements AutoCloseable {
                         updatedIndex = colIndexes.get(updatedColumn);
                         log.info("Updated: " + updatedColumn);
                     }
-                    StringBuilder sb = new StringBuilder();
-                    jw.beginArray();
-                    while (rs.next()) {
-                        jw.beginObject();
-
-                        jw.name("_id");
-                        sb.setLength(0);
-                        for (int i=0; i < pkIndexes.length; i++) {
-                            if (i > 0) {
-                                sb.append(":");
-                            }
-                            sb.append(rs.getString(pkIndexes[i]));
-                        }
-                        jw.value(sb.toString());
-
-                        if (updatedIndex > 0) {
-                            jw.name("_updated");
-                            jw.value(rs.getString(updatedIndex));
+                    try {
+                        encoder.begin(colNames, colTypes, pkIndexes, updatedIndex, source.getCellLimit());
+                        while (rs.next()) {
+                            encoder.writeEntity(rs);
                         }
-                        writeRow(jw, colNames, colTypes, rs);
-                        jw.endObject();
+                        encoder.end();
+                    } catch (IOException e) {
+                        // the client is gone, so stop the query instead of letting close() fetch the remaining rows
+                        cancel(stmt);
+                        throw new DisconnectedException(e);
                     }
-                    jw.endArray();
                 } finally {
                     rs.close();
                 }
+            } catch (SQLException e) {
+                if (timedOut.get()) {
+                    throw new SQLTimeoutException("Query timed out after " + source.getQueryTimeout() + " seconds", e);
+                }
+                throw e;
             } finally {
+                if (watchdog != null) {
+                    watchdog.cancel(false);
+                }
                 stmt.close();
             }
+            tx.commit();
         } finally {
-            conn.close();;
+            conn.close();
         }
     }
 
 
-    private void writeRow(JsonWriter jw, String[] colNames, int[] colTypes, ResultSet rs) throws SQLException, IOException {
-        for(int i=1; i < colNames.length+1; i++) {
-            jw.name(colNames[i-1]);
-            switch (colTypes[i-1]) {
-//            case java.sql.Types.ARRAY: {
-//                Array array = rs.getArray(i);
-//                array.getResultSet();
-//                obj.addProperty(columnName, array);
-//                break;
-//            }
-            case java.sql.Types.BIGINT: {
-                jw.value((Number)rs.getObject(i)); 
-                break;
-            }
-//            case java.sql.Types.BINARY:{
-//                byte[] bytes = rs.getBytes(i);
-//                if (bytes != null) {
-//                    jw.value("~b" + Base64.getEncoder().encodeToString(bytes));
-//                } else {
-//                    jw.nullValue();
-//                }
-//                break;
-//            }
-            case java.sql.Types.BIT: {
-                jw.value(rs.getBoolean(i)); 
-                break;
-            }
-//            case java.sql.Types.BLOB: {
-//                Blob blob = rs.getBlob(i);
-//                String value2 = null;
-//                jw.value(value2); 
-//                break;
-//            }
-            case java.sql.Types.BOOLEAN: {
-                jw.value(rs.getBoolean(i)); 
-                break;
-            }
-            case java.sql.Types.CHAR: {
-                jw.value(rs.getString(i)); 
-                break;
-            }
-                //            case java.sql.Types.CLOB:
-                //                break;
-                //            case java.sql.Types.DATALINK:
-                //                break;
-            case java.sql.Types.DATE: {
-                Date date = rs.getDate(i);
-                String value1 = "~t" + DateTimeFormatter.ISO_LOCAL_DATE.format(date.toLocalDate());
-                jw.value(value1); 
-                break;
-            }
-            case java.sql.Types.DECIMAL: {
-                jw.value(rs.getBigDecimal(i)); 
-                break;
-            }
-                //            case java.sql.Types.DISTINCT:
-                //                break;
-            case java.sql.Types.DOUBLE: {
-                jw.value(rs.getDouble(i)); 
-                break;
-            }
-            case java.sql.Types.FLOAT: {
-                jw.value(rs.getFloat(i)); 
-                break;
-            }
-            case java.sql.Types.INTEGER: {
-                jw.value(rs.getInt(i)); 
-                break;
-            }
-//            case java.sql.Types.JAVA_OBJECT:
-//                break;
-//            case java.sql.Types.LONGNVARCHAR:
-//                break;
-//            case java.sql.Types.LONGVARBINARY:
-//                break;
-//            case java.sql.Types.LONGVARCHAR:
-//                break;
-            case java.sql.Types.NCHAR: {
-                jw.value(rs.getNString(i)); 
-                break;
-            }
-            case java.sql.Types.NULL: {
-                jw.nullValue(); 
-                break;
-            }
-            case java.sql.Types.NUMERIC: {
-                jw.value(rs.getBigDecimal(i)); 
-                break;
-            }
-            case java.sql.Types.NVARCHAR: {
-                jw.value(rs.getNString(i)); 
-                break;
-            }
-                //            case java.sql.Types.OTHER:
-                //                break;
-            case java.sql.Types.REAL: {
-                jw.value(rs.getFloat(i)); 
-                break;
+    private static void cancel(Statement stmt) {
+        try {
+            stmt.cancel();
+        } catch (SQLException e) {
+            log.warn("Not able to cancel query", e);
+        }
+    }
+
+    /**
+     * @return the JDBC type of the updated column, from the table metadata or an earlier result set of the
+     *         source, or else from the statement metadata. Null if not known.
+     */
+    private Integer getUpdatedColumnType(String sourceId, Source source, PreparedStatement stmt) throws SQLException {
+        String updatedColumn = source.getUpdatedColumn();
+        if (updatedColumn == null) {
+            return null;
+        }
+        Integer type = source.getColumnType(updatedColumn);
+        if (type == null) {
+            type = updatedColumnTypes.get(sourceId);
+        }
+        if (type == null) {
+            try {
+                ResultSetMetaData rsmd = stmt.getMetaData();
+                if (rsmd != null) {
+                    for (int i=1; i <= rsmd.getColumnCount(); i++) {
+                        if (updatedColumn.equals(rsmd.getColumnName(i))) {
+                            type = rsmd.getColumnType(i);
+                            updatedColumnTypes.put(sourceId, type);
+                            break;
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                log.warn("Not able to describe query, binding since as a string: " + e.getMessage());
             }
-                //            case java.sql.Types.REF:
-                //                break;
-                //            case java.sql.Types.REF_CURSOR:
-                //                break;
-                //            case java.sql.Types.ROWID:
-                //                break;
-            case java.sql.Types.SMALLINT: {
-                jw.value(rs.getInt(i)); 
-                break;
+        }
+        return type;
+    }
+
+    private static String resolveColumn(List<String> knownColumns, String column) {
+        for (String knownColumn : knownColumns) {
+            if (knownColumn.equalsIgnoreCase(column)) {
+                return knownColumn;
             }
-            case java.sql.Types.SQLXML: {
-                jw.value(rs.getString(i)); 
-                break;
+        }
+        throw new IllegalArgumentException("Unknown column: " + column);
+    }
+
+    public void readEntities(JsonReader jr, String sinkId, boolean isFull) throws SQLException, IOException, Scheduler.RejectedException {
+        // TODO read json entities and write to sink according to mapping rules
+        Sink sink = this.sinks.get(sinkId);
+        if (sink == null) {
+            throw new RuntimeException("Unknown sink: " + sinkId);
+        }
+        Scheduler.Permit permit = scheduler.acquire(sinkEndpoint(sinkId));
+        try {
+            Connection conn = getConnection();
+            conn.setAutoCommit(false);
+            try {
+                sink.readEntities(jr, conn, isFull);
+            } finally {
+                conn.close();
             }
-                //            case java.sql.Types.STRUCT:
-                //                break;
-            case java.sql.Types.TIME: {
-                Time time = rs.getTime(i);
-                if (time != null) {
-                    jw.value(DateTimeFormatter.ISO_TIME.format(time.toLocalTime()));  // NOTE: no transit encoding
-                } else {
-                    jw.nullValue();
-                }
-                break;
+        } finally {
+            permit.close();
+        }
+    }
+
+    public long readLines(BufferedReader reader, String sinkId, boolean isFull, long offset) throws SQLException, LineOffsetException, Scheduler.RejectedException {
+        Sink sink = this.sinks.get(sinkId);
+        if (sink == null) {
+            throw new RuntimeException("Unknown sink: " + sinkId);
+        }
+        Scheduler.Permit permit = scheduler.acquire(sinkEndpoint(sinkId));
+        try {
+            Connection conn = getConnection();
+            conn.setAutoCommit(false);
+            try {
+                return sink.readLines(reader, conn, isFull, offset);
+            } finally {
+                conn.close();
             }
-            case java.sql.Types.TIME_WITH_TIMEZONE: {
-                Time time = rs.getTime(i, UTC_CALENDAR);
-                if (time != null) {
-                    jw.value(DateTimeFormatter.ISO_TIME.format(time.toLocalTime()));  // NOTE: no transit encoding
-                } else {
-                    jw.nullValue();
-                }
-                break;
+        } finally {
+            permit.close();
+        }
+    }
+
+    /**
+     * Fills the connection pool to its minimum size, reads each source a few times with a row limit through both
+     * encoders and makes a round trip to each sink table, so that the first requests do not pay for connection setup,
+     * driver class loading and interpreted code. Failures are logged and do not stop the warm-up.
+     */
+    public void warmUp() {
+        if (warmUpRows <= 0) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        List<Connection> connections = new ArrayList<>();
+        try {
+            for (int i=0; i < pool.getMinimumIdle(); i++) {
+                connections.add(pool.getConnection());
             }
-            case java.sql.Types.TIMESTAMP: {
-                Timestamp timestamp = rs.getTimestamp(i);
-                if (timestamp != null) {
-                    jw.value("~t" + DateTimeFormatter.ISO_INSTANT.format(timestamp.toInstant()));
-                } else {
-                    jw.nullValue();
+        } catch (SQLException e) {
+            log.warn("Not able to fill connection pool", e);
+        } finally {
+            for (Connection connection : connections) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    log.warn("Not able to close connection", e);
                 }
-                break;
             }
-            case java.sql.Types.TIMESTAMP_WITH_TIMEZONE: {
-                Timestamp timestamp = rs.getTimestamp(i, UTC_CALENDAR);
-                if (timestamp != null) {
-                    jw.value("~t" + DateTimeFormatter.ISO_INSTANT.format(timestamp.toInstant()));
-                } else {
-                    jw.nullValue();
+        }
+        for (Map.Entry<String, Source> entry : this.sources.entrySet()) {
+            Source source = entry.getValue();
+            try {
+                for (int i=0; i < warmUpIterations; i++) {
+                    writeEntities(new JsonEntityEncoder(NULL_WRITER), entry.getKey(), source, source.getQuery(null),
+                            null, new ArrayList<>(), new ArrayList<>(), warmUpRows);
                 }
-                break;
-            }
-            case java.sql.Types.TINYINT: {
-                jw.value(rs.getInt(i)); 
-                break;
-            }
-//            case java.sql.Types.VARBINARY: {
-//                byte[] bytes = rs.getBytes(i);
-//                if (bytes != null) {
-//                    jw.value("~b" + Base64.getEncoder().encodeToString(bytes));
-//                } else {
-//                    jw.nullValue();
-//                }
-//                break;
-//            }
-            case java.sql.Types.VARCHAR: {
-                String value = rs.getString(i);
-                if (value != null) {
-                    jw.value(value);
-                } else {
-                    jw.nullValue();
+                for (int i=0; i < warmUpIterations; i++) {
+                    writeEntities(new BinaryEntityEncoder(NULL_OUTPUT_STREAM), entry.getKey(), source, source.getQuery(null),
+                            null, new ArrayList<>(), new ArrayList<>(), warmUpRows);
                 }
-                break;
+            } catch (IllegalArgumentException e) {
+                // e.g. large object columns without a cell limit, which the binary format does not serve
+                log.info("Not warming up the binary format for source: " + entry.getKey() + ": " + e.getMessage());
+            } catch (Exception e) {
+                log.warn("Warm-up failed for source: " + entry.getKey(), e);
             }
-            default:
-                throw new SQLException("Unsupported column type: " + colNames[i-1] + " " + colTypes[i-1]);
+        }
+        for (Map.Entry<String, Sink> entry : this.sinks.entrySet()) {
+            try (Connection conn = pool.getConnection()) {
+                entry.getValue().warmUp(conn);
+            } catch (Exception e) {
+                log.warn("Warm-up failed for sink: " + entry.getKey(), e);
             }
         }
+        log.info("Warm-up took " + (System.currentTimeMillis() - start) + "ms");
     }
 
+    private static final Writer NULL_WRITER = new Writer() {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
 
-    public void readEntities(JsonReader jr, String sinkId, boolean isFull) throws SQLException, IOException {
-        // TODO read json entities and write to sink according to mapping rules
-        Sink sink = this.sinks.get(sinkId);
-        if (sink == null) {
-            throw new RuntimeException("Unknown sink: " + sinkId);
+        @Override
+        public void flush() {
         }
-        Connection conn = ds.getConnection();
-        conn.setAutoCommit(false);
-        try {
-            sink.readEntities(jr, conn, isFull);
-        } finally {
-            conn.close();
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) {
         }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    static String sourceEndpoint(String sourceId) {
+        return "source:" + sourceId;
+    }
+
+    static String sinkEndpoint(String sinkId) {
+        return "sink:" + sinkId;
+    }
+
+    private Connection getConnection() throws SQLException {
+        return pool.getConnection();
+    }
+
+    public ConnectionStats getConnectionStats() {
+        return pool.getStats();
     }
 
     public boolean isValidSource(String sourceId) {
@@ -331,14 +418,99 @@ public class DataSystem implements AutoCloseable {
     }
 
     public void configure() throws SQLException {
-        Connection connection = this.ds.getConnection();
+        boolean cached = false;
+        Connection connection = null;
         try {
-            for (Map.Entry<String, Sink> entry : this.sinks.entrySet()) {
-                log.debug("Configuring sink: " + entry.getKey());
-                entry.getValue().configure(connection);
+            for (String table : getTables()) {
+                TableMetadata metadata = schemaCache != null ? schemaCache.get(table) : null;
+                if (metadata != null) {
+                    try {
+                        configure(table, metadata);
+                        cached = true;
+                        continue;
+                    } catch (RuntimeException e) {
+                        log.warn("Cached schema not usable for table: " + table, e);
+                    }
+                }
+                if (connection == null) {
+                    connection = getConnection();
+                }
+                metadata = TableMetadata.read(connection, table);
+                configure(table, metadata);
+                if (schemaCache != null) {
+                    schemaCache.put(metadata);
+                }
             }
         } finally {
-            connection.close();
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        if (schemaCache != null) {
+            schemaCache.save();
+            if (cached) {
+                Thread revalidator = new Thread(this::revalidateSchema, "schema-revalidation");
+                revalidator.setDaemon(true);
+                revalidator.start();
+            }
+        }
+    }
+
+    /**
+     * @return the sink tables. Table sources read their metadata when they are first projected or filtered.
+     */
+    private Set<String> getTables() {
+        Set<String> tables = new LinkedHashSet<>();
+        for (Sink sink : this.sinks.values()) {
+            tables.add(sink.getTable());
+        }
+        return tables;
+    }
+
+    private void configure(String table, TableMetadata metadata) {
+        for (Map.Entry<String, Sink> entry : this.sinks.entrySet()) {
+            if (table.equals(entry.getValue().getTable())) {
+                log.debug("Configuring sink: " + entry.getKey());
+                entry.getValue().configure(metadata);
+            }
+        }
+        for (Map.Entry<String, Source> entry : this.sources.entrySet()) {
+            if (table.equals(entry.getValue().getTable())) {
+                log.debug("Configuring source: " + entry.getKey());
+                entry.getValue().configure(metadata);
+            }
+        }
+    }
+
+    /**
+     * Re-reads the metadata of the sink tables and reconfigures the ones whose fingerprint differs
+     * from the schema cache.
+     */
+    void revalidateSchema() {
+        boolean changed = false;
+        try (Connection connection = getConnection()) {
+            for (String table : getTables()) {
+                TableMetadata cached = schemaCache.get(table);
+                TableMetadata current;
+                try {
+                    current = TableMetadata.read(connection, table);
+                } catch (RuntimeException e) {
+                    log.error("Schema revalidation failed for table: " + table, e);
+                    continue;
+                }
+                if (cached != null && cached.getFingerprint().equals(current.getFingerprint())) {
+                    continue;
+                }
+                log.info("Schema changed for table: " + table);
+                configure(table, current);
+                schemaCache.put(current);
+                changed = true;
+            }
+        } catch (Exception e) {
+            log.error("Schema revalidation failed", e);
+        }
+        if (changed) {
+            schemaCache.save();
         }
     }
 }
@@ -0,0 +1,14 @@
+package io.sesam.datasources;
+
+import java.io.IOException;
+
+/**
+ * Thrown when writing entities fails because the client went away. The query has been cancelled.
+ */
+public class DisconnectedException extends IOException {
+
+    public DisconnectedException(Throwable cause) {
+        super("Client disconnected", cause);
+    }
+
+}
@@ -0,0 +1,35 @@
+package io.sesam.datasources;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Writes the rows of a source result set as entities in a specific response format.
+ */
+public interface EntityEncoder {
+
+    public String getContentType();
+
+    /**
+     * @param pkIndexes the 1-based indexes of the primary key columns used to construct _id
+     * @param updatedIndex the 1-based index of the updated column used for _updated, or 0 if there is none
+     * @param cellLimit the size limit for binary and character large object values
+     */
+    public void begin(String[] colNames, int[] colTypes, int[] pkIndexes, int updatedIndex, CellLimit cellLimit) throws SQLException, IOException;
+
+    /**
+     * @throws SQLException if a value can not be read, also when reading a large object stream fails
+     * @throws IOException only if writing to the client fails
+     */
+    public void writeEntity(ResultSet rs) throws SQLException, IOException;
+
+    public void end() throws IOException;
+
+    /**
+     * Ends the stream with an error instead of {@link #end()} when the read fails after {@link #begin}, so that
+     * the client can tell a failed stream from a complete one.
+     */
+    public void error(String message) throws IOException;
+
+}
@@ -0,0 +1,281 @@
+package io.sesam.datasources;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Reads the primary key and updated columns of a row once, using typed getters, and writes _id and _updated
+ * straight to a writer without building intermediate strings. Encoders reuse the primary key values when the
+ * same columns are written as regular fields.
+ */
+public class EntityKeys {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final int[] pkIndexes;
+    private final int[] pkTypes;
+    private final int[] slots;
+    private final long[] longs;
+    private final String[] strings;
+    private final boolean[] nulls;
+
+    private final int updatedIndex;
+    private final int updatedType;
+    private long updatedLong;
+    private Object updatedValue;
+    private boolean updatedNull;
+
+    private final char[] scratch = new char[20];
+
+    /**
+     * @param colTypes the java.sql.Types of all columns
+     * @param pkIndexes the 1-based indexes of the primary key columns
+     * @param updatedIndex the 1-based index of the updated column, or 0 if there is none
+     */
+    public EntityKeys(int[] colTypes, int[] pkIndexes, int updatedIndex) {
+        this.pkIndexes = pkIndexes;
+        this.pkTypes = new int[pkIndexes.length];
+        this.slots = new int[colTypes.length + 1];
+        Arrays.fill(slots, -1);
+        for (int i=0; i < pkIndexes.length; i++) {
+            pkTypes[i] = colTypes[pkIndexes[i]-1];
+            if (isIntegral(pkTypes[i]) || isCharacter(pkTypes[i])) {
+                slots[pkIndexes[i]] = i;
+            }
+        }
+        this.longs = new long[pkIndexes.length];
+        this.strings = new String[pkIndexes.length];
+        this.nulls = new boolean[pkIndexes.length];
+        this.updatedIndex = updatedIndex;
+        this.updatedType = updatedIndex > 0 ? colTypes[updatedIndex-1] : java.sql.Types.NULL;
+    }
+
+    public void read(ResultSet rs) throws SQLException {
+        for (int i=0; i < pkIndexes.length; i++) {
+            if (isIntegral(pkTypes[i])) {
+                longs[i] = rs.getLong(pkIndexes[i]);
+                nulls[i] = rs.wasNull();
+            } else if (isNational(pkTypes[i])) {
+                strings[i] = rs.getNString(pkIndexes[i]);
+                nulls[i] = strings[i] == null;
+            } else {
+                strings[i] = rs.getString(pkIndexes[i]);
+                nulls[i] = strings[i] == null;
+            }
+        }
+        if (updatedIndex > 0) {
+            if (isIntegral(updatedType)) {
+                updatedLong = rs.getLong(updatedIndex);
+                updatedNull = rs.wasNull();
+            } else {
+                switch (updatedType) {
+                case java.sql.Types.TIMESTAMP:
+                    updatedValue = rs.getTimestamp(updatedIndex);
+                    break;
+                case java.sql.Types.TIMESTAMP_WITH_TIMEZONE:
+                    updatedValue = rs.getTimestamp(updatedIndex, DataSystem.UTC_CALENDAR);
+                    break;
+                case java.sql.Types.BINARY:
+                case java.sql.Types.VARBINARY:
+                    updatedValue = rs.getBytes(updatedIndex);
+                    break;
+                default:
+                    updatedValue = rs.getString(updatedIndex);
+                }
+                updatedNull = updatedValue == null;
+            }
+        }
+    }
+
+    /**
+     * @return the primary key slot of the 1-based column index, or -1 if the column is not a primary key column
+     *         whose value can be reused as a regular field
+     */
+    public int getSlot(int columnIndex) {
+        return slots[columnIndex];
+    }
+
+    public boolean isNull(int slot) {
+        return nulls[slot];
+    }
+
+    /**
+     * @return true if the value of the slot was read as a long, otherwise it was read as a string
+     */
+    public boolean isLong(int slot) {
+        return isIntegral(pkTypes[slot]);
+    }
+
+    public long getLong(int slot) {
+        return longs[slot];
+    }
+
+    public String getString(int slot) {
+        return strings[slot];
+    }
+
+    public boolean isUpdatedNull() {
+        return updatedNull;
+    }
+
+    /**
+     * Writes the primary key values separated by ":", without quotes.
+     *
+     * @param escape true if string values should be escaped for use inside a JSON string
+     */
+    public void writeId(Writer out, boolean escape) throws IOException {
+        for (int i=0; i < pkIndexes.length; i++) {
+            if (i > 0) {
+                out.write(':');
+            }
+            if (nulls[i]) {
+                out.write("null");
+            } else if (isIntegral(pkTypes[i])) {
+                writeLong(out, longs[i]);
+            } else {
+                writeString(out, strings[i], escape);
+            }
+        }
+    }
+
+    /**
+     * Writes the updated value, without quotes, in a form {@link ParameterBinder} parses back. Timestamps are
+     * written like {@link Timestamp#toString()}, timestamps with time zone as an ISO-8601 UTC instant and binary
+     * values, e.g. rowversion, as hex.
+     */
+    public void writeUpdated(Writer out, boolean escape) throws IOException {
+        if (isIntegral(updatedType)) {
+            writeLong(out, updatedLong);
+        } else if (updatedValue instanceof Timestamp) {
+            writeTimestamp(out, (Timestamp) updatedValue, updatedType == java.sql.Types.TIMESTAMP_WITH_TIMEZONE);
+        } else if (updatedValue instanceof byte[]) {
+            for (byte b : (byte[]) updatedValue) {
+                out.write(HEX[(b >> 4) & 0xF]);
+                out.write(HEX[b & 0xF]);
+            }
+        } else {
+            writeString(out, (String) updatedValue, escape);
+        }
+    }
+
+    private void writeLong(Writer out, long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            out.write(Long.toString(value));
+            return;
+        }
+        boolean negative = value < 0;
+        long remaining = negative ? -value : value;
+        int pos = scratch.length;
+        do {
+            scratch[--pos] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining > 0);
+        if (negative) {
+            scratch[--pos] = '-';
+        }
+        out.write(scratch, pos, scratch.length - pos);
+    }
+
+    private void writePadded(Writer out, int value, int width) throws IOException {
+        int pos = scratch.length;
+        for (int i=0; i < width; i++) {
+            scratch[--pos] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        out.write(scratch, pos, width);
+    }
+
+    private void writeTimestamp(Writer out, Timestamp timestamp, boolean utc) throws IOException {
+        LocalDateTime dt = utc ? LocalDateTime.ofInstant(timestamp.toInstant(), ZoneOffset.UTC) : timestamp.toLocalDateTime();
+        writePadded(out, dt.getYear(), 4);
+        out.write('-');
+        writePadded(out, dt.getMonthValue(), 2);
+        out.write('-');
+        writePadded(out, dt.getDayOfMonth(), 2);
+        out.write(utc ? 'T' : ' ');
+        writePadded(out, dt.getHour(), 2);
+        out.write(':');
+        writePadded(out, dt.getMinute(), 2);
+        out.write(':');
+        writePadded(out, dt.getSecond(), 2);
+        out.write('.');
+        int nanos = timestamp.getNanos();
+        if (nanos == 0) {
+            out.write('0');
+        } else {
+            int digits = 9;
+            while (nanos % 10 == 0) {
+                nanos /= 10;
+                digits--;
+            }
+            writePadded(out, nanos, digits);
+        }
+        if (utc) {
+            out.write('Z');
+        }
+    }
+
+    private static void writeString(Writer out, String value, boolean escape) throws IOException {
+        if (!escape) {
+            out.write(value);
+            return;
+        }
+        int last = 0;
+        int length = value.length();
+        for (int i=0; i < length; i++) {
+            String replacement = escape(value.charAt(i));
+            if (replacement != null) {
+                if (last < i) {
+                    out.write(value, last, i - last);
+                }
+                out.write(replacement);
+                last = i + 1;
+            }
+        }
+        if (last < length) {
+            out.write(value, last, length - last);
+        }
+    }
+
+    /**
+     * @return the JSON escape sequence of the character, or null if it does not need escaping
+     */
+    static String escape(char c) {
+        switch (c) {
+        case '"':
+            return "\\\"";
+        case '\\':
+            return "\\\\";
+        case '\n':
+            return "\\n";
+        case '\r':
+            return "\\r";
+        case '\t':
+            return "\\t";
+        case '\u2028':
+        case '\u2029':
+            return String.format("\\u%04x", (int) c);
+        default:
+            return c < 0x20 ? String.format("\\u%04x", (int) c) : null;
+        }
+    }
+
+    private static boolean isIntegral(int type) {
+        return type == java.sql.Types.BIGINT || type == java.sql.Types.INTEGER
+                || type == java.sql.Types.SMALLINT || type == java.sql.Types.TINYINT;
+    }
+
+    private static boolean isCharacter(int type) {
+        return type == java.sql.Types.CHAR || type == java.sql.Types.VARCHAR || isNational(type);
+    }
+
+    private static boolean isNational(int type) {
+        return type == java.sql.Types.NCHAR || type == java.sql.Types.NVARCHAR;
+    }
+}
@@ -2,4 +2,8 @@ package io.sesam.datasources;
 
 public class InvalidSinceException extends Exception {
 
+    public InvalidSinceException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
 }
@@ -0,0 +1,504 @@
+package io.sesam.datasources;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes entities as a JSON array, using transit encoding for dates, timestamps and binary values. Binary and
+ * character large objects are streamed in chunks straight to the writer.
+ */
+public class JsonEntityEncoder implements EntityEncoder {
+
+    public static final String CONTENT_TYPE = "application/json; charset=utf-8";
+
+    static final int CHUNK_SIZE = 8192;
+
+    private final Writer writer;
+    private final JsonWriter jw;
+    private final byte[] bytes = new byte[CHUNK_SIZE];
+    private final char[] chars = new char[CHUNK_SIZE];
+    private String[] colNames;
+    private int[] colTypes;
+    private int updatedIndex;
+    private CellLimit cellLimit;
+    private EntityKeys keys;
+    private boolean started;
+    // what the entity being written has left open on the writer, so that a failure can close it
+    private boolean inEntity;
+    private boolean inString;
+
+    public JsonEntityEncoder(Writer writer) {
+        this.writer = writer;
+        this.jw = new JsonWriter(writer);
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public void begin(String[] colNames, int[] colTypes, int[] pkIndexes, int updatedIndex, CellLimit cellLimit) throws IOException {
+        this.colNames = colNames;
+        this.colTypes = colTypes;
+        this.updatedIndex = updatedIndex;
+        this.cellLimit = cellLimit;
+        this.keys = new EntityKeys(colTypes, pkIndexes, updatedIndex);
+        jw.beginArray();
+    }
+
+    @Override
+    public void writeEntity(ResultSet rs) throws SQLException, IOException {
+        keys.read(rs);
+        jw.beginObject();
+        started = true;
+        inEntity = true;
+
+        // written straight to the writer, JsonWriter only writes the name and the opening quote
+        jw.name("_id");
+        jw.jsonValue("\"");
+        inString = true;
+        keys.writeId(writer, true);
+        writer.write('"');
+        inString = false;
+
+        if (updatedIndex > 0) {
+            jw.name("_updated");
+            if (keys.isUpdatedNull()) {
+                jw.nullValue();
+            } else {
+                jw.jsonValue("\"");
+                inString = true;
+                keys.writeUpdated(writer, true);
+                writer.write('"');
+                inString = false;
+            }
+        }
+        writeRow(rs);
+        jw.endObject();
+        inEntity = false;
+    }
+
+    @Override
+    public void end() throws IOException {
+        jw.endArray();
+        jw.flush();
+    }
+
+    /**
+     * Ends the array with an error object and leaves it unclosed, so that the response is not valid JSON and can
+     * not be mistaken for a complete one. An entity that failed partway has already been streamed, so it becomes
+     * the error object itself: the value that failed is cut short and the entity gets the _error property, so that
+     * it can not be taken for a complete entity.
+     */
+    @Override
+    public void error(String message) throws IOException {
+        jw.flush();
+        if (inEntity) {
+            if (inString) {
+                writer.write('"');
+            }
+            // the entity always has _id, so the property can be appended
+            writer.write(",\"_error\":\"");
+            char[] escaped = message.toCharArray();
+            writeEscaped(escaped, escaped.length);
+            writer.write("\"}");
+            writer.flush();
+            return;
+        }
+        if (started) {
+            writer.write(',');
+        }
+        JsonWriter error = new JsonWriter(writer);
+        error.beginObject();
+        error.name("_error").value(message);
+        error.endObject();
+        error.flush();
+    }
+
+    private void writeRow(ResultSet rs) throws SQLException, IOException {
+        for(int i=1; i < colNames.length+1; i++) {
+            jw.name(colNames[i-1]);
+            int slot = keys.getSlot(i);
+            if (slot >= 0) {
+                // primary key value already read for _id
+                if (keys.isNull(slot)) {
+                    jw.nullValue();
+                } else if (keys.isLong(slot)) {
+                    jw.value(keys.getLong(slot));
+                } else {
+                    jw.value(keys.getString(slot));
+                }
+                continue;
+            }
+            switch (colTypes[i-1]) {
+//            case java.sql.Types.ARRAY: {
+//                Array array = rs.getArray(i);
+//                array.getResultSet();
+//                obj.addProperty(columnName, array);
+//                break;
+//            }
+            case java.sql.Types.BIGINT: {
+                jw.value((Number)rs.getObject(i)); 
+                break;
+            }
+            case java.sql.Types.BINARY: {
+                writeBinary(rs.getBinaryStream(i), -1);
+                break;
+            }
+            case java.sql.Types.BIT: {
+                jw.value(rs.getBoolean(i)); 
+                break;
+            }
+            case java.sql.Types.BLOB: {
+                Blob blob = rs.getBlob(i);
+                if (blob != null) {
+                    try {
+                        writeBinary(blob.getBinaryStream(), blob.length());
+                    } finally {
+                        blob.free();
+                    }
+                } else {
+                    jw.nullValue();
+                }
+                break;
+            }
+            case java.sql.Types.BOOLEAN: {
+                jw.value(rs.getBoolean(i)); 
+                break;
+            }
+            case java.sql.Types.CHAR: {
+                jw.value(rs.getString(i)); 
+                break;
+            }
+            case java.sql.Types.CLOB: {
+                Clob clob = rs.getClob(i);
+                if (clob != null) {
+                    try {
+                        writeCharacters(clob.getCharacterStream(), clob.length());
+                    } finally {
+                        clob.free();
+                    }
+                } else {
+                    jw.nullValue();
+                }
+                break;
+            }
+                //            case java.sql.Types.DATALINK:
+                //                break;
+            case java.sql.Types.DATE: {
+                Date date = rs.getDate(i);
+                String value1 = "~t" + DateTimeFormatter.ISO_LOCAL_DATE.format(date.toLocalDate());
+                jw.value(value1); 
+                break;
+            }
+            case java.sql.Types.DECIMAL: {
+                jw.value(rs.getBigDecimal(i)); 
+                break;
+            }
+                //            case java.sql.Types.DISTINCT:
+                //                break;
+            case java.sql.Types.DOUBLE: {
+                jw.value(rs.getDouble(i)); 
+                break;
+            }
+            case java.sql.Types.FLOAT: {
+                jw.value(rs.getFloat(i)); 
+                break;
+            }
+            case java.sql.Types.INTEGER: {
+                jw.value(rs.getInt(i)); 
+                break;
+            }
+//            case java.sql.Types.JAVA_OBJECT:
+//                break;
+            case java.sql.Types.LONGNVARCHAR: {
+                writeCharacters(rs.getNCharacterStream(i), -1);
+                break;
+            }
+            case java.sql.Types.LONGVARBINARY: {
+                writeBinary(rs.getBinaryStream(i), -1);
+                break;
+            }
+            case java.sql.Types.LONGVARCHAR: {
+                writeCharacters(rs.getCharacterStream(i), -1);
+                break;
+            }
+            case java.sql.Types.NCHAR: {
+                jw.value(rs.getNString(i)); 
+                break;
+            }
+            case java.sql.Types.NULL: {
+                jw.nullValue(); 
+                break;
+            }
+            case java.sql.Types.NUMERIC: {
+                jw.value(rs.getBigDecimal(i)); 
+                break;
+            }
+            case java.sql.Types.NVARCHAR: {
+                jw.value(rs.getNString(i)); 
+                break;
+            }
+                //            case java.sql.Types.OTHER:
+                //                break;
+            case java.sql.Types.REAL: {
+                jw.value(rs.getFloat(i)); 
+                break;
+            }
+                //            case java.sql.Types.REF:
+                //                break;
+                //            case java.sql.Types.REF_CURSOR:
+                //                break;
+                //            case java.sql.Types.ROWID:
+                //                break;
+            case java.sql.Types.SMALLINT: {
+                jw.value(rs.getInt(i)); 
+                break;
+            }
+            case java.sql.Types.SQLXML: {
+                jw.value(rs.getString(i)); 
+                break;
+            }
+                //            case java.sql.Types.STRUCT:
+                //                break;
+            case java.sql.Types.TIME: {
+                Time time = rs.getTime(i);
+                if (time != null) {
+                    jw.value(DateTimeFormatter.ISO_TIME.format(time.toLocalTime()));  // NOTE: no transit encoding
+                } else {
+                    jw.nullValue();
+                }
+                break;
+            }
+            case java.sql.Types.TIME_WITH_TIMEZONE: {
+                Time time = rs.getTime(i, DataSystem.UTC_CALENDAR);
+                if (time != null) {
+                    jw.value(DateTimeFormatter.ISO_TIME.format(time.toLocalTime()));  // NOTE: no transit encoding
+                } else {
+                    jw.nullValue();
+                }
+                break;
+            }
+            case java.sql.Types.TIMESTAMP: {
+                Timestamp timestamp = rs.getTimestamp(i);
+                if (timestamp != null) {
+                    jw.value("~t" + DateTimeFormatter.ISO_INSTANT.format(timestamp.toInstant()));
+                } else {
+                    jw.nullValue();
+                }
+                break;
+            }
+            case java.sql.Types.TIMESTAMP_WITH_TIMEZONE: {
+                Timestamp timestamp = rs.getTimestamp(i, DataSystem.UTC_CALENDAR);
+                if (timestamp != null) {
+                    jw.value("~t" + DateTimeFormatter.ISO_INSTANT.format(timestamp.toInstant()));
+                } else {
+                    jw.nullValue();
+                }
+                break;
+            }
+            case java.sql.Types.TINYINT: {
+                jw.value(rs.getInt(i)); 
+                break;
+            }
+            case java.sql.Types.VARBINARY: {
+                writeBinary(rs.getBinaryStream(i), -1);
+                break;
+            }
+            case java.sql.Types.VARCHAR: {
+                String value = rs.getString(i);
+                if (value != null) {
+                    jw.value(value);
+                } else {
+                    jw.nullValue();
+                }
+                break;
+            }
+            default:
+                throw new SQLException("Unsupported column type: " + colNames[i-1] + " " + colTypes[i-1]);
+            }
+        }
+    }
+
+    /**
+     * Streams the value as a transit encoded base64 string, in chunks straight to the writer.
+     *
+     * @param length the length of the value, or -1 if not known up front
+     */
+    private void writeBinary(InputStream in, long length) throws SQLException, IOException {
+        if (in == null) {
+            jw.nullValue();
+            return;
+        }
+        try {
+            if (cellLimit.isSkip()) {
+                if (length < 0) {
+                    // the value has to be buffered to find its length, but never more than the limit
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    length = copy(in, buffer, cellLimit.getReadLimit());
+                    in = new ByteArrayInputStream(buffer.toByteArray());
+                }
+                if (cellLimit.isExceeded(length)) {
+                    jw.nullValue();
+                    return;
+                }
+            }
+            jw.jsonValue("\"~b");
+            inString = true;
+            OutputStream base64 = Base64.getEncoder().wrap(new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    writer.write(b);
+                }
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    // base64 is ascii, so each encoded chunk is widened into the char buffer and written at once
+                    while (len > 0) {
+                        int n = Math.min(len, chars.length);
+                        for (int i=0; i < n; i++) {
+                            chars[i] = (char) b[off + i];
+                        }
+                        writer.write(chars, 0, n);
+                        off += n;
+                        len -= n;
+                    }
+                }
+                @Override
+                public void close() {
+                    // leave the writer open
+                }
+            });
+            copy(in, base64, cellLimit.getReadLimit());
+            base64.close();
+            writer.write('"');
+            inString = false;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Streams the value as an escaped JSON string, in chunks straight to the writer.
+     *
+     * @param length the length of the value, or -1 if not known up front
+     */
+    private void writeCharacters(Reader in, long length) throws SQLException, IOException {
+        if (in == null) {
+            jw.nullValue();
+            return;
+        }
+        try {
+            if (cellLimit.isSkip()) {
+                if (length < 0) {
+                    // the value has to be buffered to find its length, but never more than the limit
+                    CharArrayWriter buffer = new CharArrayWriter();
+                    length = copy(in, buffer, cellLimit.getReadLimit());
+                    in = new CharArrayReader(buffer.toCharArray());
+                }
+                if (cellLimit.isExceeded(length)) {
+                    jw.nullValue();
+                    return;
+                }
+            }
+            jw.jsonValue("\"");
+            inString = true;
+            long remaining = cellLimit.getReadLimit();
+            int n;
+            while (remaining > 0 && (n = read(in, chars, (int) Math.min(chars.length, remaining))) != -1) {
+                remaining -= n;
+                if (remaining == 0 && Character.isHighSurrogate(chars[n-1])) {
+                    // truncated, but not in the middle of a surrogate pair
+                    n--;
+                }
+                writeEscaped(chars, n);
+            }
+            writer.write('"');
+            inString = false;
+        } finally {
+            close(in);
+        }
+    }
+
+    private void writeEscaped(char[] chars, int length) throws IOException {
+        int last = 0;
+        for (int i=0; i < length; i++) {
+            String replacement = EntityKeys.escape(chars[i]);
+            if (replacement != null) {
+                if (last < i) {
+                    writer.write(chars, last, i - last);
+                }
+                writer.write(replacement);
+                last = i + 1;
+            }
+        }
+        if (last < length) {
+            writer.write(chars, last, length - last);
+        }
+    }
+
+    private long copy(InputStream in, OutputStream out, long limit) throws SQLException, IOException {
+        long copied = 0;
+        int n;
+        while (copied < limit && (n = read(in, bytes, (int) Math.min(bytes.length, limit - copied))) != -1) {
+            out.write(bytes, 0, n);
+            copied += n;
+        }
+        return copied;
+    }
+
+    private long copy(Reader in, Writer out, long limit) throws SQLException, IOException {
+        long copied = 0;
+        int n;
+        while (copied < limit && (n = read(in, chars, (int) Math.min(chars.length, limit - copied))) != -1) {
+            out.write(chars, 0, n);
+            copied += n;
+        }
+        return copied;
+    }
+
+    // large object streams are read from the database, so their failures are not client disconnects
+
+    private static int read(InputStream in, byte[] buffer, int length) throws SQLException {
+        try {
+            return in.read(buffer, 0, length);
+        } catch (IOException e) {
+            throw new SQLException("Not able to read large object: " + e.getMessage(), e);
+        }
+    }
+
+    private static int read(Reader in, char[] buffer, int length) throws SQLException {
+        try {
+            return in.read(buffer, 0, length);
+        } catch (IOException e) {
+            throw new SQLException("Not able to read large object: " + e.getMessage(), e);
+        }
+    }
+
+    private static void close(Closeable in) throws SQLException {
+        try {
+            in.close();
+        } catch (IOException e) {
+            throw new SQLException("Not able to read large object: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package io.sesam.datasources;
+
+/**
+ * Thrown when a line based post fails, telling how many lines were committed before the failure so that the
+ * post can be resumed from that offset.
+ */
+public class LineOffsetException extends Exception {
+
+    private final long offset;
+
+    public LineOffsetException(long offset, Throwable cause) {
+        super("Failed after line " + offset, cause);
+        this.offset = offset;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+}
@@ -1,5 +1,6 @@
 package io.sesam.datasources;
 
+import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.sql.SQLException;
@@ -17,15 +18,14 @@ import org.slf4j.LoggerFactory;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.stream.JsonWriter;
 import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
 
 public class Mapper implements AutoCloseable {
 
     static Logger log = LoggerFactory.getLogger(Mapper.class);
     
     private Map<String,DataSystem> systems = new ConcurrentHashMap<>();
+    private volatile boolean ready;
 
     public Mapper(Map<String,DataSystem> systems) {
         this.systems = systems;            
@@ -42,6 +42,25 @@ public class Mapper implements AutoCloseable {
         }
     }
 
+    /**
+     * Warms up the systems that have warm-up enabled. The mapper is ready when this is done.
+     */
+    public void warmUp() {
+        for (DataSystem system : this.systems.values()) {
+            system.warmUp();
+        }
+        ready = true;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public ConnectionStats getConnectionStats(String systemId) {
+        DataSystem system = this.systems.get(systemId);
+        return system != null ? system.getConnectionStats() : null;
+    }
+
     public boolean isValidSource(String systemId, String sourceId) {
         DataSystem system = this.systems.get(systemId);
         return system != null && system.isValidSource(sourceId);
@@ -52,28 +71,43 @@ public class Mapper implements AutoCloseable {
         return system != null && system.isValidSink(sinkId);
     }
 
-    public void writeEntities(JsonWriter jw, String systemId, String sourceId, String since) throws SQLException, IOException {
+    public void writeEntities(EntityEncoder encoder, String systemId, String sourceId, String since, List<String> columns, Map<String,String> filters) throws SQLException, IOException, InvalidSinceException, Scheduler.RejectedException {
         DataSystem system = this.systems.get(systemId);
         assert system != null;
-        system.writeEntities(jw, sourceId, since);
+        system.writeEntities(encoder, sourceId, since, columns, filters);
     }
 
 
-    public void readEntities(JsonReader jr, String systemId, String sinkId, boolean isFull) throws SQLException, IOException {
+    public void readEntities(JsonReader jr, String systemId, String sinkId, boolean isFull) throws SQLException, IOException, Scheduler.RejectedException {
         DataSystem system = this.systems.get(systemId);
         assert system != null;
         system.readEntities(jr, sinkId, isFull);
     }
+
+    public long readLines(BufferedReader reader, String systemId, String sinkId, boolean isFull, long offset) throws SQLException, LineOffsetException, Scheduler.RejectedException {
+        DataSystem system = this.systems.get(systemId);
+        assert system != null;
+        return system.readLines(reader, sinkId, isFull, offset);
+    }
     
     public static Mapper load(String filename) throws Exception {
         try (FileReader reader = new FileReader(filename)) {
             Gson gson = new Gson();
             JsonObject root = gson.fromJson(reader, JsonObject.class);
             
+            // systems with the same connection settings share a pool, as large as the largest pool-size among them
+            Map<String,Integer> poolSizes = new HashMap<>();
+            for (Entry<String, JsonElement> e : root.entrySet()) {
+                if (e.getValue().isJsonObject()) {
+                    JsonObject systemObj = e.getValue().getAsJsonObject();
+                    poolSizes.merge(getPoolKey(systemObj), getIntValue(systemObj, "pool-size", DEFAULT_POOL_SIZE), Math::max);
+                }
+            }
+            Map<String,ConnectionPool> pools = new HashMap<>();
             Map<String,DataSystem> systems = new HashMap<>();
             for (Entry<String, JsonElement> e : root.entrySet()) {
                 String systemId = e.getKey();
-                DataSystem system = newSystem(systemId, e.getValue());
+                DataSystem system = newSystem(systemId, e.getValue(), pools, poolSizes);
                 system.configure();
                 systems.put(systemId, system);
             }
@@ -81,7 +115,14 @@ public class Mapper implements AutoCloseable {
         }
     }
 
-    private static DataSystem newSystem(String systemId, JsonElement systemElem) {
+    static final int DEFAULT_POOL_SIZE = 10;
+
+    private static String getPoolKey(JsonObject systemObj) {
+        return ConnectionPool.key(getStringValue(systemObj, "jdbc-url"), getStringValue(systemObj, "username", null),
+                getStringValue(systemObj, "password", null), getStringMap(systemObj, "properties"));
+    }
+
+    private static DataSystem newSystem(String systemId, JsonElement systemElem, Map<String,ConnectionPool> pools, Map<String,Integer> poolSizes) {
         if (!systemElem.isJsonObject()) {
             throw new RuntimeException("Invalid configuration for system '" + systemId + "': " + systemElem); 
         }
@@ -92,17 +133,37 @@ public class Mapper implements AutoCloseable {
         String username = getStringValue(systemObj, "username", null);
         String password = getStringValue(systemObj, "password", null);
 
-        HikariConfig config = new HikariConfig();
-        config.setInitializationFailFast(false);
-        config.setConnectionTimeout(5000);
-        config.setJdbcUrl(jdbcUrl);
-        if (username != null) {
-            config.setUsername(username);
-        }
-        if (password != null) {
-            config.setPassword(password);
+        String poolKey = getPoolKey(systemObj);
+        ConnectionPool pool = pools.get(poolKey);
+        if (pool == null) {
+            HikariConfig config = new HikariConfig();
+            config.setInitializationFailFast(false);
+            config.setConnectionTimeout(5000);
+            config.setMaximumPoolSize(poolSizes.get(poolKey));
+            config.setJdbcUrl(jdbcUrl);
+            if (username != null) {
+                config.setUsername(username);
+            }
+            if (password != null) {
+                config.setPassword(password);
+            }
+            for (Entry<String, String> property : getStringMap(systemObj, "properties").entrySet()) {
+                config.addDataSourceProperty(property.getKey(), property.getValue());
+            }
+            pool = new ConnectionPool(config);
+            pools.put(poolKey, pool);
+        } else {
+            log.info("System '" + systemId + "' shares its connection pool with another system");
         }
-        HikariDataSource ds = new HikariDataSource(config);
+        // each system can use at most max-connections of the shared pool
+        int maxConnections = getIntValue(systemObj, "max-connections", getIntValue(systemObj, "pool-size", DEFAULT_POOL_SIZE));
+        ConnectionPool.Quota quota = pool.newQuota(systemId, maxConnections);
+
+        // admission control, by default no more concurrent requests than the system has connections
+        int maxConcurrentRequests = getIntValue(systemObj, "max-concurrent-requests", quota.getMaxConnections());
+        int maxQueuedRequests = getIntValue(systemObj, "max-queued-requests", 100);
+        long queueTimeout = getLongValue(systemObj, "queue-timeout", 5000);
+        Scheduler scheduler = new Scheduler(maxConcurrentRequests, maxQueuedRequests, queueTimeout);
         
         // sources: tables and queries
         Map<String,Source> sources = new HashMap<>();
@@ -121,12 +182,23 @@ public class Mapper implements AutoCloseable {
                     primaryKeys.add(pkElem.getAsString());
                 }
                 String updatedColumn = getStringValue(sourceObj, "updated-column", null);
+                scheduler.register(DataSystem.sourceEndpoint(sourceId), getIntValue(sourceObj, "max-concurrent-requests", 0), getIntValue(sourceObj, "weight", 1));
+                long maxCellSize = getLongValue(sourceObj, "max-cell-size", 0);
+                String oversizedCells = getStringValue(sourceObj, "oversized-cells", "truncate");
+                if (!"truncate".equals(oversizedCells) && !"skip".equals(oversizedCells)) {
+                    throw new RuntimeException("Invalid 'oversized-cells' property in " + sourceObj);
+                }
+                CellLimit cellLimit = new CellLimit(maxCellSize, "skip".equals(oversizedCells));
+                ReadSettings readSettings = ReadSettings.create(jdbcUrl, getStringValue(sourceObj, "isolation", null),
+                        getBooleanValue(sourceObj, "read-only", false), getBooleanValue(sourceObj, "nolock", false),
+                        !sourceObj.has("query"));
+                int queryTimeout = getIntValue(sourceObj, "query-timeout", 0);
                 if (sourceObj.has("query")) {
                     String query = getStringValue(sourceObj, "query");
                     String since = getStringValue(sourceObj, "since", null);
-                    sources.put(sourceId, new Query(query, since, primaryKeys, updatedColumn));
+                    sources.put(sourceId, new Query(query, since, primaryKeys, updatedColumn, cellLimit, readSettings, queryTimeout));
                 } else {
-                    sources.put(sourceId, new Table(sourceId, primaryKeys, updatedColumn));
+                    sources.put(sourceId, new Table(sourceId, primaryKeys, updatedColumn, cellLimit, readSettings, queryTimeout));
                 }
             }
         }
@@ -139,6 +211,7 @@ public class Mapper implements AutoCloseable {
                 String sinkId = e.getKey();
                 JsonObject sinkObj = e.getValue().getAsJsonObject();
                 String table = getStringValue(sinkObj, "table");
+                scheduler.register(DataSystem.sinkEndpoint(sinkId), getIntValue(sinkObj, "max-concurrent-requests", 0), getIntValue(sinkObj, "weight", 1));
                 JsonElement pkElem = sinkObj.get("primary-key");
                 List<String> primaryKeys = new ArrayList<>();
                 if (pkElem != null) {
@@ -154,11 +227,25 @@ public class Mapper implements AutoCloseable {
                 List<String> blacklist = getStringValues(sinkObj, "blacklist");
                 String timestamp = getStringValue(sinkObj, "timestamp", "sesam-timestamp");
                 boolean truncateOnFirstRun = getBooleanValue(sinkObj, "truncate_table_on_first_run", false);
+                int batchSize = getIntValue(sinkObj, "batch-size", 1000);
+                String hashColumn = getStringValue(sinkObj, "hash-column", null);
 
-                sinks.put(sinkId, new MatcherSink(sinkId, table, primaryKeys, truncateOnFirstRun, whitelist, blacklist, timestamp));
+                sinks.put(sinkId, new MatcherSink(sinkId, table, primaryKeys, truncateOnFirstRun, whitelist, blacklist, timestamp, batchSize, hashColumn));
             }
         }
-        return new DataSystem(ds, sources, sinks);
+        String schemaCacheFile = getStringValue(systemObj, "schema-cache", null);
+        SchemaCache schemaCache = null;
+        if (schemaCacheFile != null) {
+            schemaCache = new SchemaCache(schemaCacheFile, jdbcUrl);
+        }
+        // optional warm-up at startup
+        int warmUpRows = 0;
+        int warmUpIterations = 0;
+        if (getBooleanValue(systemObj, "warm-up", false)) {
+            warmUpRows = getIntValue(systemObj, "warm-up-rows", 1000);
+            warmUpIterations = getIntValue(systemObj, "warm-up-iterations", 10);
+        }
+        return new DataSystem(quota, sources, sinks, schemaCache, scheduler, warmUpRows, warmUpIterations);
     }
 
     private static String getStringValue(JsonObject jo, String key) {
@@ -187,6 +274,32 @@ public class Mapper implements AutoCloseable {
         return values;
     }
 
+    private static Map<String,String> getStringMap(JsonObject jo, String key) {
+        Map<String,String> values = new HashMap<>();
+        if (jo.has(key)) {
+            for (Entry<String, JsonElement> e : jo.getAsJsonObject(key).entrySet()) {
+                values.put(e.getKey(), e.getValue().getAsString());
+            }
+        }
+        return values;
+    }
+
+    private static int getIntValue(JsonObject jo, String key, int defaultValue) {
+        if (jo.has(key)) {
+            return jo.getAsJsonPrimitive(key).getAsInt();
+        } else {
+            return defaultValue;
+        }
+    }
+
+    private static long getLongValue(JsonObject jo, String key, long defaultValue) {
+        if (jo.has(key)) {
+            return jo.getAsJsonPrimitive(key).getAsLong();
+        } else {
+            return defaultValue;
+        }
+    }
+
     private static boolean getBooleanValue(JsonObject jo, String key, boolean defaultValue) {
         if (jo.has(key)) {
             return jo.getAsJsonPrimitive(key).getAsBoolean();
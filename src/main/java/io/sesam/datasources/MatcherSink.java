@@ -5,12 +5,19 @@ import com.google.gson.stream.JsonToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.*;
 import java.sql.Date;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.stream.Collectors;
 
 public class MatcherSink implements Sink {
     final Logger log;
@@ -20,10 +27,11 @@ public class MatcherSink implements Sink {
     private final List<String> whitelist;
     private final List<String> blacklist;
     private final String timestamp;
-    private List<String> pkColumns;
-    private boolean useTimestamp;
+    private final int batchSize;
+    private final String hashColumn;
+    private volatile Schema schema;
 
-    public MatcherSink(String sinkName, String table, List<String> primaryKeys, boolean truncateOnFirstRun, List<String> whitelist, List<String> blacklist, String timestamp) {
+    public MatcherSink(String sinkName, String table, List<String> primaryKeys, boolean truncateOnFirstRun, List<String> whitelist, List<String> blacklist, String timestamp, int batchSize, String hashColumn) {
         log = LoggerFactory.getLogger(sinkName);
         this.table = table;
         this.primaryKeys = primaryKeys;
@@ -31,68 +39,119 @@ public class MatcherSink implements Sink {
         this.whitelist = whitelist;
         this.blacklist = blacklist;
         this.timestamp = timestamp;
+        this.batchSize = batchSize;
+        this.hashColumn = hashColumn;
     }
 
+    @Override
+    public String getTable() {
+        return table;
+    }
+
+    @Override
     public void configure(Connection conn) throws SQLException {
-        // TODO handle case matching
-        DatabaseMetaData metaData = conn.getMetaData();
-        ResultSet tables = metaData.getTables(null, null, table, null);
-        boolean tableFound = false;
-        while (tables.next()) {
-            String tableName = tables.getString(3);
-            log.info("found table: " + tableName);
-            if (table.equals(tableName)) {
-                tableFound = true;
-                break;
-            }
-        }
-        if (!tableFound) {
-            throw new RuntimeException("No such table found: " + table);
-        }
-        ResultSet columns = metaData.getColumns(null, null, table, null);
-        List<String> columnNames = new ArrayList<>();
-        while (columns.next()) {
-            String columnName = columns.getString(4);
+        configure(TableMetadata.read(conn, table));
+    }
+
+    @Override
+    public void configure(TableMetadata metadata) {
+        log.info("found table: " + metadata.getTable());
+        List<String> columnNames = metadata.getColumnNames();
+        for (String columnName : columnNames) {
             log.info("found column: " + columnName);
-            columnNames.add(columnName);
         }
+        boolean useTimestamp = false;
         if (columnNames.contains(timestamp)) {
             log.info("found timestamp column: " + timestamp);
-            this.useTimestamp = true;
+            useTimestamp = true;
+        }
+        if (hashColumn != null) {
+            Integer hashType = metadata.getColumnTypes().get(hashColumn);
+            if (hashType == null) {
+                throw new RuntimeException("No such column found: " + hashColumn);
+            }
+            if (hashType != Types.CHAR && hashType != Types.VARCHAR && hashType != Types.NCHAR && hashType != Types.NVARCHAR) {
+                throw new RuntimeException("Hash column must be a character column: " + hashColumn);
+            }
+            Integer hashSize = metadata.getColumnSize(hashColumn);
+            if (hashSize == null || hashSize < HASH_LENGTH) {
+                throw new RuntimeException("Hash column must hold at least " + HASH_LENGTH + " characters: " + hashColumn);
+            }
+            log.info("found hash column: " + hashColumn);
         }
+        List<String> pkColumns;
         if (!this.primaryKeys.isEmpty()) {
             for (String pk : this.primaryKeys) {
                 if (!columnNames.contains(pk)) {
                     throw new RuntimeException("No such column found: " + pk);
                 }
             }
-            this.pkColumns = primaryKeys;
+            pkColumns = primaryKeys;
         } else {
-            ResultSet primaryKeys = metaData.getPrimaryKeys(null, null, table);
-            List<String> pkColumns = new ArrayList<>();
-            while (primaryKeys.next()) {
-                String pkColumn = primaryKeys.getString(4);
+            pkColumns = metadata.getPrimaryKeys();
+            for (String pkColumn : pkColumns) {
                 log.info("found pk column: " + pkColumn);
-                pkColumns.add(pkColumn);
             }
-            this.pkColumns = pkColumns;
+        }
+        List<Integer> pkTypes = new ArrayList<>(pkColumns.size());
+        for (String pk : pkColumns) {
+            pkTypes.add(metadata.getColumnTypes().get(pk));
+        }
+        // published at once, the schema can be revalidated while entities are written
+        this.schema = new Schema(pkColumns, pkTypes, useTimestamp);
+    }
+
+    @Override
+    public void warmUp(Connection conn) throws SQLException {
+        // the update and insert statements depend on the properties of each entity, so instead a real round trip
+        // is made on the table: the hash lookup of a full batch, or else an update that can not match any row
+        Schema schema = this.schema;
+        String sql;
+        int params;
+        if (hashColumn != null) {
+            sql = selectHashesSql(HASH_LOOKUP_SIZE, schema);
+            params = HASH_LOOKUP_SIZE * schema.pkColumns.size();
+        } else {
+            StringJoiner setters = new StringJoiner(",");
+            StringJoiner wheres = new StringJoiner(" AND ");
+            for (String pk : schema.pkColumns) {
+                setters.add(pk + " = " + pk);
+                wheres.add(pk + " = ?");
+            }
+            sql = "UPDATE " + table + " SET " + setters.toString() + " WHERE " + wheres.toString();
+            params = schema.pkColumns.size();
+        }
+        conn.setAutoCommit(false);
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            // nothing equals null. The null is typed, as e.g. PostgreSQL and Oracle can not infer the type of an
+            // untyped null parameter. The parameters repeat the primary key columns in order.
+            for (int i=0; i < params; i++) {
+                stmt.setNull(i + 1, schema.pkTypes.get(i % schema.pkTypes.size()));
+            }
+            stmt.execute();
+        } finally {
+            conn.rollback();
         }
     }
 
     @Override
     public void readEntities(JsonReader jr, Connection conn, boolean isFull) throws SQLException, IOException {
         if (isFull && truncateOnFirstRun) {
-            String deleteAll = "DELETE FROM " + table;
-            PreparedStatement deleteAllStmt = conn.prepareStatement(deleteAll);
-            log.info("Deleting all from table: " + table);
-            deleteAllStmt.execute();
-            conn.commit();
+            deleteAll(conn);
         }
+        Schema schema = this.schema;
         try {
+            Map<List<Object>, Entity> batch = new LinkedHashMap<>();
             jr.beginArray();
             while (jr.hasNext()) {
-                readEntity(jr, conn);
+                Entity entity = readEntity(jr, schema);
+                batch.put(getKey(entity, schema), entity);
+                if (batch.size() >= batchSize) {
+                    writeEntities(batch.values(), conn, schema);
+                    batch.clear();
+                }
             }
+            writeEntities(batch.values(), conn, schema);
             conn.commit();
             jr.endArray();
         } catch (SQLException e) {
@@ -102,7 +161,75 @@ public class MatcherSink implements Sink {
         }
     }
 
-    private void readEntity(JsonReader jr, Connection conn) throws SQLException, IOException {
+    @Override
+    public long readLines(BufferedReader reader, Connection conn, boolean isFull, long offset) throws LineOffsetException {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid offset: " + offset);
+        }
+        long committed = offset;
+        Schema schema = this.schema;
+        try {
+            if (isFull && truncateOnFirstRun && offset == 0) {
+                deleteAll(conn);
+            }
+            for (long skipped = 0; skipped < offset; skipped++) {
+                if (reader.readLine() == null) {
+                    return committed;
+                }
+            }
+            List<String> chunk = new ArrayList<>(batchSize);
+            while (true) {
+                chunk.clear();
+                String line;
+                while (chunk.size() < batchSize && (line = reader.readLine()) != null) {
+                    chunk.add(line);
+                }
+                if (chunk.isEmpty()) {
+                    return committed;
+                }
+                // decode in parallel, but coalesce in line order
+                List<Entity> entities = chunk.parallelStream().map(l -> readLine(l, schema)).collect(Collectors.toList());
+                Map<List<Object>, Entity> batch = new LinkedHashMap<>();
+                for (Entity entity : entities) {
+                    if (entity != null) {
+                        batch.put(getKey(entity, schema), entity);
+                    }
+                }
+                writeEntities(batch.values(), conn, schema);
+                conn.commit();
+                committed += chunk.size();
+            }
+        } catch (SQLException | IOException | RuntimeException e) {
+            log.warn("Rolling back chunk after exception, committed up to line " + committed, e);
+            try {
+                conn.rollback();
+            } catch (SQLException re) {
+                log.warn("Rollback failed", re);
+            }
+            throw new LineOffsetException(committed, e);
+        }
+    }
+
+    private Entity readLine(String line, Schema schema) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return readEntity(new JsonReader(new StringReader(line)), schema);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void deleteAll(Connection conn) throws SQLException {
+        String deleteAll = "DELETE FROM " + table;
+        PreparedStatement deleteAllStmt = conn.prepareStatement(deleteAll);
+        log.info("Deleting all from table: " + table);
+        deleteAllStmt.execute();
+        conn.commit();
+    }
+
+    private Entity readEntity(JsonReader jr, Schema schema) throws IOException {
         jr.beginObject();
         LinkedHashMap<String, Object> values = new LinkedHashMap<>();
         boolean isDeleted = false;
@@ -112,21 +239,161 @@ public class MatcherSink implements Sink {
                 isDeleted = jr.nextBoolean();
             } else {
                 Object value = getValue(jr);
-                if (value != IGNORE && isListed(name)) {
+                if (value != IGNORE && isListed(name, schema)) {
                     values.put(name, value);
                 }
             }
         }
-        if (isDeleted) {
-            delete(values, conn);
+        jr.endObject();
+        return new Entity(values, isDeleted);
+    }
+
+    /**
+     * The primary key values of the entity, used to coalesce the versions of an entity within a batch so that
+     * only the last one is written. Entities with a missing primary key value get a key of their own, as they
+     * can not be told apart from other entities that miss it.
+     */
+    private List<Object> getKey(Entity entity, Schema schema) {
+        List<String> pkColumns = schema.pkColumns;
+        List<Object> key = new ArrayList<>(pkColumns.size());
+        for (String pk : pkColumns) {
+            Object value = entity.values.get(pk);
+            if (value == null) {
+                return Collections.singletonList(new Object());
+            }
+            key.add(normalize(value));
+        }
+        return key;
+    }
+
+    private static Object normalize(Object value) {
+        if (value instanceof BigDecimal) {
+            // 1 and 1.0 are the same key
+            return ((BigDecimal) value).stripTrailingZeros();
+        } else if (value instanceof Number) {
+            return new BigDecimal(value.toString()).stripTrailingZeros();
+        }
+        return value;
+    }
+
+    private void writeEntities(Collection<Entity> entities, Connection conn, Schema schema) throws SQLException {
+        if (hashColumn != null) {
+            entities = skipUnchanged(entities, conn, schema);
+        }
+        for (Entity entity : entities) {
+            writeEntity(entity, conn, schema);
+        }
+    }
+
+    private void writeEntity(Entity entity, Connection conn, Schema schema) throws SQLException {
+        if (entity.deleted) {
+            delete(entity.values, conn, schema);
         } else {
-            updateOrInsert(values, conn);
+            updateOrInsert(entity.values, conn, schema);
         }
-        jr.endObject();
     }
 
-    private boolean isListed(String name) {
-        if (pkColumns.contains(name)) {
+    /**
+     * Computes the content hash of the updated entities and leaves out the ones whose hash is the same as the one
+     * stored in the hash column. The hash is added to the entity values so that it is written with the entity.
+     */
+    private Collection<Entity> skipUnchanged(Collection<Entity> entities, Connection conn, Schema schema) throws SQLException {
+        List<Entity> changed = new ArrayList<>(entities.size());
+        List<Entity> updated = new ArrayList<>(entities.size());
+        for (Entity entity : entities) {
+            if (entity.deleted) {
+                changed.add(entity);
+            } else {
+                entity.values.put(hashColumn, hash(entity.values));
+                updated.add(entity);
+            }
+        }
+        for (int from = 0; from < updated.size(); from += HASH_LOOKUP_SIZE) {
+            List<Entity> lookup = updated.subList(from, Math.min(from + HASH_LOOKUP_SIZE, updated.size()));
+            Map<List<Object>, String> storedHashes = readHashes(lookup, conn, schema);
+            for (Entity entity : lookup) {
+                if (!entity.values.get(hashColumn).equals(storedHashes.get(getKey(entity, schema)))) {
+                    changed.add(entity);
+                }
+            }
+        }
+        if (changed.size() < entities.size()) {
+            log.info("Skipping " + (entities.size() - changed.size()) + " unchanged entities");
+        }
+        return changed;
+    }
+
+    private Map<List<Object>, String> readHashes(List<Entity> entities, Connection conn, Schema schema) throws SQLException {
+        List<String> pkColumns = schema.pkColumns;
+        Map<List<Object>, String> hashes = new HashMap<>();
+        try (PreparedStatement selectStmt = conn.prepareStatement(selectHashesSql(entities.size(), schema))) {
+            int paramIndex = 1;
+            for (Entity entity : entities) {
+                for (String pk : pkColumns) {
+                    selectStmt.setObject(paramIndex++, entity.values.get(pk));
+                }
+            }
+            try (ResultSet rs = selectStmt.executeQuery()) {
+                while (rs.next()) {
+                    List<Object> rowKey = new ArrayList<>(pkColumns.size());
+                    for (int i=1; i <= pkColumns.size(); i++) {
+                        rowKey.add(normalize(rs.getObject(i)));
+                    }
+                    // CHAR columns wider than the hash come back padded with spaces on e.g. SQL Server and Oracle
+                    String hash = rs.getString(pkColumns.size() + 1);
+                    hashes.put(rowKey, hash != null ? hash.trim() : null);
+                }
+            }
+        }
+        return hashes;
+    }
+
+    private String selectHashesSql(int count, Schema schema) {
+        // "select a, b, h from x where (a = ? and b = ?) or (a = ? and b = ?)"
+        StringJoiner columns = new StringJoiner(",");
+        StringJoiner key = new StringJoiner(" AND ", "(", ")");
+        for (String pk : schema.pkColumns) {
+            columns.add(pk);
+            key.add(pk + " = ?");
+        }
+        columns.add(hashColumn);
+        StringJoiner wheres = new StringJoiner(" OR ");
+        for (int i=0; i < count; i++) {
+            wheres.add(key.toString());
+        }
+        return "SELECT " + columns.toString() + " FROM " + table + " WHERE " + wheres.toString();
+    }
+
+    /**
+     * @return the hex encoded SHA-1 of the values, independent of the order of the properties
+     */
+    static String hash(Map<String, Object> values) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        for (Map.Entry<String, Object> value : new TreeMap<>(values).entrySet()) {
+            Object v = value.getValue();
+            if (v instanceof BigDecimal) {
+                v = ((BigDecimal) v).stripTrailingZeros().toPlainString();
+            }
+            String type = v == null ? "null" : v.getClass().getSimpleName();
+            digest.update((value.getKey() + "\0" + type + "\0" + v + "\0").getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private boolean isListed(String name, Schema schema) {
+        if (name.equals(hashColumn)) {
+            // only ever written by the sink
+            return false;
+        } else if (schema.pkColumns.contains(name)) {
             // ignore blacklisted primary key columns
             return true;
         } else if (whitelist.isEmpty()) {
@@ -136,40 +403,19 @@ public class MatcherSink implements Sink {
         }
     }
 
-    private void delete(LinkedHashMap<String, Object> values, Connection conn) throws SQLException {
-        String delete = "DELETE FROM " + table;
-        StringJoiner columns = new StringJoiner(",");
-        StringJoiner placeholders = new StringJoiner(",");
-        for (String pk : pkColumns) {
-            columns.add(pk + " = ?");
-        }
-        delete += " WHERE " + columns.toString();
+    private void delete(LinkedHashMap<String, Object> values, Connection conn, Schema schema) throws SQLException {
+        String delete = deleteSql(schema);
         log.info(delete);
         PreparedStatement deleteStmt = conn.prepareStatement(delete);
         int paramIndex = 1;
-        for (String pk : pkColumns) {
+        for (String pk : schema.pkColumns) {
             deleteStmt.setObject(paramIndex++, values.get(pk));
         }
         deleteStmt.execute();
     }
 
-    private void updateOrInsert(LinkedHashMap<String, Object> values, Connection conn) throws SQLException {
-        // "update x set a = ? where z = ?"
-        String update = "UPDATE " + table + " SET ";
-        StringJoiner setters = new StringJoiner(",");
-        for (String column : values.keySet()) {
-            setters.add(column + " = ?");
-        }
-        if (useTimestamp) {
-            // TODO or detect dialect and use now() functions in db
-            setters.add(timestamp + " = ?");
-        }
-        update += setters.toString();
-        StringJoiner wheres = new StringJoiner(",");
-        for (String pks : pkColumns) {
-            wheres.add(pks + " = ?");
-        }
-        update += " WHERE " + wheres.toString();
+    private void updateOrInsert(LinkedHashMap<String, Object> values, Connection conn, Schema schema) throws SQLException {
+        String update = updateSql(values.keySet(), schema);
         log.info(update);
         PreparedStatement updateStmt = conn.prepareStatement(update);
         int paramIndex = 1;
@@ -177,10 +423,10 @@ public class MatcherSink implements Sink {
             // TODO could us setDate, setInt, etc.
             updateStmt.setObject(paramIndex++, value.getValue());
         }
-        if (useTimestamp) {
+        if (schema.useTimestamp) {
             updateStmt.setDate(paramIndex++, new Date(System.currentTimeMillis()));
         }
-        for (String pk : pkColumns) {
+        for (String pk : schema.pkColumns) {
             updateStmt.setObject(paramIndex++, values.get(pk));
         }
         updateStmt.execute();
@@ -188,24 +434,12 @@ public class MatcherSink implements Sink {
         if (updated > 1) {
             throw new SQLException("Expected 1 row to be updated, not " + updated);
         } else if (updated == 0) {
-            insert(values, conn);
+            insert(values, conn, schema);
         }
     }
 
-    private void insert(LinkedHashMap<String, Object> values, Connection conn) throws SQLException {
-        // "insert into x (a, z) values (?, ?)"
-        String insert = "INSERT INTO " + table + " (";
-        StringJoiner columns = new StringJoiner(",");
-        StringJoiner placeholders = new StringJoiner(",");
-        for (String column : values.keySet()) {
-            columns.add(column);
-            placeholders.add("?");
-        }
-        if (useTimestamp) {
-            columns.add(timestamp);
-            columns.add("?");
-        }
-        insert += columns.toString() + ") VALUES (" + placeholders.toString() + ")";
+    private void insert(LinkedHashMap<String, Object> values, Connection conn, Schema schema) throws SQLException {
+        String insert = insertSql(values.keySet(), schema);
         log.info(insert);
         PreparedStatement insertStmt = conn.prepareStatement(insert);
         int paramIndex = 1;
@@ -213,14 +447,88 @@ public class MatcherSink implements Sink {
             // TODO could us setDate, setInt, etc.
             insertStmt.setObject(paramIndex++, value.getValue());
         }
-        if (useTimestamp) {
+        if (schema.useTimestamp) {
             insertStmt.setDate(paramIndex++, new Date(System.currentTimeMillis()));
         }
         insertStmt.execute();
     }
 
+    private String deleteSql(Schema schema) {
+        String delete = "DELETE FROM " + table;
+        StringJoiner columns = new StringJoiner(",");
+        for (String pk : schema.pkColumns) {
+            columns.add(pk + " = ?");
+        }
+        return delete + " WHERE " + columns.toString();
+    }
+
+    private String updateSql(Set<String> valueColumns, Schema schema) {
+        // "update x set a = ? where z = ?"
+        String update = "UPDATE " + table + " SET ";
+        StringJoiner setters = new StringJoiner(",");
+        for (String column : valueColumns) {
+            setters.add(column + " = ?");
+        }
+        if (schema.useTimestamp) {
+            // TODO or detect dialect and use now() functions in db
+            setters.add(timestamp + " = ?");
+        }
+        update += setters.toString();
+        StringJoiner wheres = new StringJoiner(",");
+        for (String pks : schema.pkColumns) {
+            wheres.add(pks + " = ?");
+        }
+        return update + " WHERE " + wheres.toString();
+    }
+
+    private String insertSql(Set<String> valueColumns, Schema schema) {
+        // "insert into x (a, z) values (?, ?)"
+        String insert = "INSERT INTO " + table + " (";
+        StringJoiner columns = new StringJoiner(",");
+        StringJoiner placeholders = new StringJoiner(",");
+        for (String column : valueColumns) {
+            columns.add(column);
+            placeholders.add("?");
+        }
+        if (schema.useTimestamp) {
+            columns.add(timestamp);
+            columns.add("?");
+        }
+        return insert + columns.toString() + ") VALUES (" + placeholders.toString() + ")";
+    }
+
     static final Object IGNORE = new Object();
 
+    static final int HASH_LOOKUP_SIZE = 100;
+
+    // hex encoded SHA-1
+    static final int HASH_LENGTH = 40;
+
+    /**
+     * The configuration derived from the table metadata, replaced as a whole when the table is reconfigured.
+     */
+    static class Schema {
+        final List<String> pkColumns;
+        final List<Integer> pkTypes;
+        final boolean useTimestamp;
+
+        Schema(List<String> pkColumns, List<Integer> pkTypes, boolean useTimestamp) {
+            this.pkColumns = pkColumns;
+            this.pkTypes = pkTypes;
+            this.useTimestamp = useTimestamp;
+        }
+    }
+
+    static class Entity {
+        final LinkedHashMap<String, Object> values;
+        final boolean deleted;
+
+        Entity(LinkedHashMap<String, Object> values, boolean deleted) {
+            this.values = values;
+            this.deleted = deleted;
+        }
+    }
+
     private Object getValue(JsonReader jr) throws IOException {
         JsonToken type = jr.peek();
         if (type == JsonToken.BOOLEAN) {
@@ -229,6 +537,7 @@ public class MatcherSink implements Sink {
             // could optimize to use other datatypes if possible
             return new BigDecimal(jr.nextString());
         } else if (type == JsonToken.NULL) {
+            jr.nextNull();
             return null;
         } else if (type == JsonToken.STRING) {
             String val = jr.nextString();
@@ -0,0 +1,130 @@
+package io.sesam.datasources;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Binds string request parameters, e.g. since tokens and filter values, using the JDBC type of the column they
+ * are compared to. Binding a string to a non-string column makes databases like SQL Server convert the column
+ * instead of the parameter, which prevents index seeks.
+ */
+public class ParameterBinder {
+
+    /**
+     * @param sqlType the java.sql.Types of the column, or null if it is not known
+     * @throws IllegalArgumentException if the value can not be parsed as the column type
+     */
+    public static void bind(PreparedStatement stmt, int index, Integer sqlType, String value) throws SQLException {
+        if (sqlType == null) {
+            stmt.setString(index, value);
+            return;
+        }
+        try {
+            switch (sqlType) {
+            case java.sql.Types.BIGINT:
+            case java.sql.Types.INTEGER:
+            case java.sql.Types.SMALLINT:
+            case java.sql.Types.TINYINT:
+                stmt.setLong(index, Long.parseLong(value.trim()));
+                break;
+            case java.sql.Types.DECIMAL:
+            case java.sql.Types.NUMERIC:
+                stmt.setBigDecimal(index, new BigDecimal(value.trim()));
+                break;
+            case java.sql.Types.DOUBLE:
+            case java.sql.Types.FLOAT:
+            case java.sql.Types.REAL:
+                stmt.setDouble(index, Double.parseDouble(value.trim()));
+                break;
+            case java.sql.Types.BIT:
+            case java.sql.Types.BOOLEAN:
+                stmt.setBoolean(index, parseBoolean(value.trim()));
+                break;
+            case java.sql.Types.DATE:
+                stmt.setDate(index, Date.valueOf(stripTransit(value)));
+                break;
+            case java.sql.Types.TIMESTAMP:
+                stmt.setTimestamp(index, parseTimestamp(value));
+                break;
+            case java.sql.Types.TIMESTAMP_WITH_TIMEZONE:
+                stmt.setTimestamp(index, parseTimestamp(value), DataSystem.UTC_CALENDAR);
+                break;
+            case java.sql.Types.BINARY:
+            case java.sql.Types.VARBINARY:
+                // e.g. rowversion, written as hex in _updated
+                stmt.setBytes(index, parseHex(value.trim()));
+                break;
+            case java.sql.Types.CHAR:
+            case java.sql.Types.VARCHAR:
+                // not setString, which may be sent as a national string
+                stmt.setObject(index, value, sqlType);
+                break;
+            case java.sql.Types.NCHAR:
+            case java.sql.Types.NVARCHAR:
+                stmt.setNString(index, value);
+                break;
+            default:
+                stmt.setString(index, value);
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid value for column type " + sqlType + ": " + value, e);
+        }
+    }
+
+    private static boolean parseBoolean(String value) {
+        if ("1".equals(value) || "true".equalsIgnoreCase(value)) {
+            return true;
+        } else if ("0".equals(value) || "false".equalsIgnoreCase(value)) {
+            return false;
+        }
+        throw new IllegalArgumentException("Invalid boolean: " + value);
+    }
+
+    private static String stripTransit(String value) {
+        value = value.trim();
+        return value.startsWith("~t") ? value.substring(2) : value;
+    }
+
+    /**
+     * Accepts both the {@link Timestamp#toString()} form used in _updated and ISO-8601 timestamps, optionally
+     * transit encoded and with an offset.
+     */
+    static Timestamp parseTimestamp(String value) {
+        String s = stripTransit(value);
+        if (s.indexOf('T') < 0) {
+            return Timestamp.valueOf(s);
+        }
+        if (s.endsWith("Z")) {
+            return Timestamp.from(Instant.parse(s));
+        }
+        int time = s.indexOf('T');
+        if (s.indexOf('+', time) > 0 || s.indexOf('-', time) > 0) {
+            return Timestamp.from(OffsetDateTime.parse(s).toInstant());
+        }
+        return Timestamp.valueOf(LocalDateTime.parse(s));
+    }
+
+    static byte[] parseHex(String value) {
+        String s = value.startsWith("0x") || value.startsWith("0X") ? value.substring(2) : value;
+        if (s.length() % 2 != 0) {
+            throw new NumberFormatException("Odd number of hex digits: " + value);
+        }
+        byte[] bytes = new byte[s.length() / 2];
+        for (int i=0; i < bytes.length; i++) {
+            int hi = Character.digit(s.charAt(i*2), 16);
+            int lo = Character.digit(s.charAt(i*2+1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new NumberFormatException("Invalid hex digit: " + value);
+            }
+            bytes[i] = (byte) ((hi << 4) | lo);
+        }
+        return bytes;
+    }
+}
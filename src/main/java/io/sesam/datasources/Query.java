@@ -6,18 +6,27 @@ public class Query implements Source {
 
     private final String queryFull;
     private final String queryInc;
+    private final boolean sinceParameter;
     private final List<String> primaryKeys;
     private final String updatedColumn;
+    private final CellLimit cellLimit;
+    private final ReadSettings readSettings;
+    private final int queryTimeout;
 
-    public Query(String query, String since, List<String> primaryKeys, String updatedColumn) {
+    public Query(String query, String since, List<String> primaryKeys, String updatedColumn, CellLimit cellLimit, ReadSettings readSettings, int queryTimeout) {
         this.queryFull = query;
         if (since != null) {
             this.queryInc = queryFull + " " + since.replace("${since}", "?");
+            this.sinceParameter = since.contains("${since}");
         } else {
             this.queryInc = queryFull;
+            this.sinceParameter = false;
         }
         this.primaryKeys = primaryKeys;
         this.updatedColumn = updatedColumn;
+        this.cellLimit = cellLimit;
+        this.readSettings = readSettings;
+        this.queryTimeout = queryTimeout;
     }
     
     @Override
@@ -29,6 +38,19 @@ public class Query implements Source {
         }
     }
 
+    @Override
+    public String getQuery(String since, List<String> columns, List<String> filterColumns) {
+        if (!columns.isEmpty() || !filterColumns.isEmpty()) {
+            throw new IllegalArgumentException("Columns and filters are only supported on table sources");
+        }
+        return getQuery(since);
+    }
+
+    @Override
+    public boolean hasSinceParameter() {
+        return sinceParameter;
+    }
+
     @Override
     public List<String> getPrimaryKeys() {
         return primaryKeys;
@@ -39,4 +61,38 @@ public class Query implements Source {
         return updatedColumn;
     }
 
+    @Override
+    public CellLimit getCellLimit() {
+        return cellLimit;
+    }
+
+    @Override
+    public ReadSettings getReadSettings() {
+        return readSettings;
+    }
+
+    @Override
+    public int getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    @Override
+    public String getTable() {
+        return null;
+    }
+
+    @Override
+    public void configure(TableMetadata metadata) {
+    }
+
+    @Override
+    public List<String> getColumnNames() {
+        return null;
+    }
+
+    @Override
+    public Integer getColumnType(String column) {
+        return null;
+    }
+
 }
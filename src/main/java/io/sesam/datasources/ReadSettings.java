@@ -0,0 +1,178 @@
+package io.sesam.datasources;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transaction isolation, read-only and locking settings for the reads of a source. When an isolation level or
+ * read-only is set the whole read runs in one transaction, so that a full read sees one consistent snapshot
+ * instead of rows from different points in time. The no-lock setting lets reads skip shared locks so that they
+ * do not block writers, using a table hint or the read uncommitted isolation level depending on the database.
+ */
+public class ReadSettings {
+
+    static Logger log = LoggerFactory.getLogger(ReadSettings.class);
+
+    public static final ReadSettings DEFAULT = new ReadSettings(null, false, null);
+
+    // com.microsoft.sqlserver.jdbc.SQLServerConnection.TRANSACTION_SNAPSHOT
+    static final int SQLSERVER_TRANSACTION_SNAPSHOT = 0x1000;
+
+    private final Integer isolation;
+    private final boolean readOnly;
+    private final String tableHint;
+
+    /**
+     * @param isolation the java.sql.Connection isolation level, or null to use the default of the connection
+     * @param tableHint the hint to add after the table name, or null
+     */
+    public ReadSettings(Integer isolation, boolean readOnly, String tableHint) {
+        this.isolation = isolation;
+        this.readOnly = readOnly;
+        this.tableHint = tableHint;
+    }
+
+    /**
+     * Creates the settings for the dialect of the JDBC url.
+     *
+     * @param isolation one of read-uncommitted, read-committed, repeatable-read, serializable or snapshot, or
+     *                  null to use the default of the connection
+     * @param noLock true if reads should not take shared locks
+     * @param isTable true if the source is a plain table, which can have a table hint
+     */
+    public static ReadSettings create(String jdbcUrl, String isolation, boolean readOnly, boolean noLock, boolean isTable) {
+        boolean sqlServer = jdbcUrl.startsWith("jdbc:sqlserver:") || jdbcUrl.startsWith("jdbc:jtds:sqlserver:");
+        boolean oracle = jdbcUrl.startsWith("jdbc:oracle:");
+        Integer isolationLevel = null;
+        if (isolation != null) {
+            if (noLock) {
+                throw new RuntimeException("The 'isolation' and 'nolock' properties can not be combined");
+            }
+            switch (isolation) {
+            case "read-uncommitted":
+                isolationLevel = Connection.TRANSACTION_READ_UNCOMMITTED;
+                break;
+            case "read-committed":
+                isolationLevel = Connection.TRANSACTION_READ_COMMITTED;
+                break;
+            case "repeatable-read":
+                isolationLevel = Connection.TRANSACTION_REPEATABLE_READ;
+                break;
+            case "serializable":
+                isolationLevel = Connection.TRANSACTION_SERIALIZABLE;
+                break;
+            case "snapshot":
+                // oracle's serializable and the repeatable read of postgresql, mysql and h2 read from a snapshot
+                if (sqlServer) {
+                    isolationLevel = SQLSERVER_TRANSACTION_SNAPSHOT;
+                } else if (oracle) {
+                    isolationLevel = Connection.TRANSACTION_SERIALIZABLE;
+                } else {
+                    isolationLevel = Connection.TRANSACTION_REPEATABLE_READ;
+                }
+                break;
+            default:
+                throw new RuntimeException("Invalid 'isolation' property: " + isolation);
+            }
+        }
+        String tableHint = null;
+        if (noLock) {
+            if (sqlServer && isTable) {
+                tableHint = "with (nolock)";
+            } else if (!oracle) {
+                // oracle readers never take shared locks
+                isolationLevel = Connection.TRANSACTION_READ_UNCOMMITTED;
+            }
+        }
+        if (isolationLevel == null && !readOnly && tableHint == null) {
+            return DEFAULT;
+        }
+        return new ReadSettings(isolationLevel, readOnly, tableHint);
+    }
+
+    /**
+     * @return the hint to add after the table name, or null
+     */
+    public String getTableHint() {
+        return tableHint;
+    }
+
+    /**
+     * @return true if reads run in a transaction of their own
+     */
+    public boolean isTransactional() {
+        return isolation != null || readOnly;
+    }
+
+    /**
+     * Starts a read transaction on the connection, if the settings need one. The connection settings are restored
+     * when the transaction is closed.
+     */
+    public Transaction begin(Connection conn) throws SQLException {
+        Transaction tx = new Transaction(conn);
+        if (isTransactional()) {
+            tx.begin();
+        }
+        return tx;
+    }
+
+    public class Transaction implements AutoCloseable {
+
+        private final Connection conn;
+        private boolean started;
+        private boolean committed;
+        private boolean autoCommit;
+        private int previousIsolation;
+        private boolean previousReadOnly;
+
+        private Transaction(Connection conn) {
+            this.conn = conn;
+        }
+
+        private void begin() throws SQLException {
+            autoCommit = conn.getAutoCommit();
+            previousIsolation = conn.getTransactionIsolation();
+            previousReadOnly = conn.isReadOnly();
+            started = true;
+            // read-only and isolation can only be changed outside of a transaction
+            if (readOnly) {
+                conn.setReadOnly(true);
+            }
+            if (isolation != null) {
+                conn.setTransactionIsolation(isolation);
+            }
+            conn.setAutoCommit(false);
+        }
+
+        public void commit() throws SQLException {
+            if (started && !committed) {
+                conn.commit();
+                committed = true;
+            }
+        }
+
+        /**
+         * Rolls back the transaction if it was not committed, and restores the connection settings.
+         */
+        @Override
+        public void close() {
+            if (!started) {
+                return;
+            }
+            started = false;
+            try {
+                if (!committed) {
+                    conn.rollback();
+                }
+                conn.setAutoCommit(autoCommit);
+                conn.setTransactionIsolation(previousIsolation);
+                conn.setReadOnly(previousReadOnly);
+            } catch (SQLException e) {
+                log.warn("Not able to restore connection settings", e);
+            }
+        }
+    }
+}
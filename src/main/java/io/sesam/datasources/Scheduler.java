@@ -0,0 +1,206 @@
+package io.sesam.datasources;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control for the requests against a system. At most maxConcurrent requests run at the same time, and
+ * each source or sink can have its own lower limit. Requests that can not run right away wait in a bounded
+ * queue, and free slots are handed out by weighted fair queuing between the sources and sinks, so that one
+ * endpoint with many requests can not starve the others. Requests that do not get a slot in time, or that find
+ * the queue full, are rejected with a {@link RejectedException}.
+ */
+public class Scheduler {
+
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long queueTimeout;
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    private int running;
+    private int queued;
+    private double virtualTime;
+
+    /**
+     * @param maxConcurrent the maximum number of concurrent requests against the system
+     * @param maxQueued the maximum number of requests waiting for a slot
+     * @param queueTimeout the maximum time in milliseconds a request waits for a slot
+     */
+    public Scheduler(int maxConcurrent, int maxQueued, long queueTimeout) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.queueTimeout = queueTimeout;
+    }
+
+    /**
+     * @param maxConcurrent the maximum number of concurrent requests against the endpoint, or 0 for no limit
+     * @param weight the share of the free slots the endpoint gets when requests are queued
+     */
+    public void register(String endpointId, int maxConcurrent, int weight) {
+        endpoints.put(endpointId, new Endpoint(maxConcurrent > 0 ? maxConcurrent : Integer.MAX_VALUE, Math.max(weight, 1)));
+    }
+
+    public Permit acquire(String endpointId) throws RejectedException {
+        Endpoint endpoint = endpoints.get(endpointId);
+        if (endpoint == null) {
+            throw new IllegalArgumentException("Unknown endpoint: " + endpointId);
+        }
+        synchronized (this) {
+            if (endpoint.waiters.isEmpty() && canRun(endpoint)) {
+                endpoint.nextFinish(virtualTime);
+                grant(endpoint);
+                return new Permit(endpoint);
+            }
+            if (queued >= maxQueued) {
+                throw new RejectedException(endpointId, retryAfter());
+            }
+            Waiter waiter = new Waiter(endpoint.nextFinish(virtualTime), 1.0 / endpoint.weight);
+            endpoint.waiters.addLast(waiter);
+            queued++;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+            try {
+                while (!waiter.granted) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new RejectedException(endpointId, retryAfter());
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (waiter.granted) {
+                    // granted while being interrupted, so hand the slot on
+                    release(endpoint);
+                }
+                throw new RejectedException(endpointId, retryAfter());
+            } finally {
+                if (!waiter.granted) {
+                    endpoint.waiters.remove(waiter);
+                    queued--;
+                }
+            }
+            return new Permit(endpoint);
+        }
+    }
+
+    private boolean canRun(Endpoint endpoint) {
+        return running < maxConcurrent && endpoint.running < endpoint.maxConcurrent;
+    }
+
+    private void grant(Endpoint endpoint) {
+        running++;
+        endpoint.running++;
+    }
+
+    private synchronized void release(Endpoint endpoint) {
+        running--;
+        endpoint.running--;
+        dispatch();
+    }
+
+    /**
+     * Hands out free slots to the waiting request with the earliest virtual finish time. The finish time is fixed
+     * when the request is queued, so an endpoint with a low weight still gets its turn.
+     */
+    private void dispatch() {
+        while (running < maxConcurrent) {
+            Endpoint next = null;
+            for (Endpoint endpoint : endpoints.values()) {
+                if (!endpoint.waiters.isEmpty() && endpoint.running < endpoint.maxConcurrent
+                        && (next == null || endpoint.waiters.peekFirst().finish < next.waiters.peekFirst().finish)) {
+                    next = endpoint;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            Waiter waiter = next.waiters.removeFirst();
+            virtualTime = Math.max(virtualTime, waiter.start);
+            grant(next);
+            waiter.granted = true;
+            queued--;
+            notifyAll();
+        }
+    }
+
+    synchronized int getQueued() {
+        return queued;
+    }
+
+    private long retryAfter() {
+        // seconds, rounded up
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(queueTimeout + 999));
+    }
+
+    public class Permit implements AutoCloseable {
+
+        private final Endpoint endpoint;
+        private boolean released;
+
+        private Permit(Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(endpoint);
+            }
+        }
+    }
+
+    public static class RejectedException extends Exception {
+
+        private final long retryAfter;
+
+        public RejectedException(String endpointId, long retryAfter) {
+            super("Too many requests for: " + endpointId);
+            this.retryAfter = retryAfter;
+        }
+
+        /**
+         * @return the number of seconds the client should wait before retrying
+         */
+        public long getRetryAfter() {
+            return retryAfter;
+        }
+    }
+
+    private static class Endpoint {
+        final int maxConcurrent;
+        final int weight;
+        final Deque<Waiter> waiters = new ArrayDeque<>();
+        int running;
+        double virtualFinish;
+
+        Endpoint(int maxConcurrent, int weight) {
+            this.maxConcurrent = maxConcurrent;
+            this.weight = weight;
+        }
+
+        /**
+         * Advances the virtual finish time of the endpoint by one request.
+         *
+         * @return the virtual finish time of the request
+         */
+        double nextFinish(double virtualTime) {
+            virtualFinish = Math.max(virtualFinish, virtualTime) + 1.0 / weight;
+            return virtualFinish;
+        }
+    }
+
+    private static class Waiter {
+        final double start;
+        final double finish;
+        boolean granted;
+
+        Waiter(double finish, double cost) {
+            this.start = finish - cost;
+            this.finish = finish;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package io.sesam.datasources;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Local file cache of {@link TableMetadata} so that sinks do not have to query the database catalog on every
+ * startup. The cache is only used if it was written by the same cache version for the same jdbc url.
+ */
+public class SchemaCache {
+
+    static Logger log = LoggerFactory.getLogger(SchemaCache.class);
+
+    static final int VERSION = 2;
+
+    private final Path file;
+    private final String jdbcUrl;
+    private final Map<String,TableMetadata> tables = new ConcurrentHashMap<>();
+
+    public SchemaCache(String filename, String jdbcUrl) {
+        this.file = Paths.get(filename);
+        this.jdbcUrl = jdbcUrl;
+        if (Files.exists(file)) {
+            load();
+        }
+    }
+
+    private void load() {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Content content = new Gson().fromJson(reader, Content.class);
+            if (content == null || content.tables == null || content.version != VERSION || !jdbcUrl.equals(content.jdbcUrl)) {
+                log.info("Ignoring stale schema cache: " + file);
+                return;
+            }
+            for (Map.Entry<String, TableMetadata> entry : content.tables.entrySet()) {
+                if (entry.getValue().isIntact()) {
+                    tables.put(entry.getKey(), entry.getValue());
+                } else {
+                    log.warn("Ignoring corrupt schema cache entry: " + entry.getKey());
+                }
+            }
+            log.info("Loaded " + tables.size() + " tables from schema cache: " + file);
+        } catch (IOException | JsonParseException e) {
+            log.warn("Not able to read schema cache: " + file, e);
+        }
+    }
+
+    public TableMetadata get(String table) {
+        return tables.get(table);
+    }
+
+    public void put(TableMetadata metadata) {
+        tables.put(metadata.getTable(), metadata);
+    }
+
+    public synchronized void save() {
+        Content content = new Content();
+        content.version = VERSION;
+        content.jdbcUrl = jdbcUrl;
+        content.tables = new TreeMap<>(tables);
+        try {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                new Gson().toJson(content, writer);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Not able to write schema cache: " + file, e);
+        }
+    }
+
+    private static class Content {
+        int version;
+        @SerializedName("jdbc-url")
+        String jdbcUrl;
+        Map<String,TableMetadata> tables;
+    }
+}
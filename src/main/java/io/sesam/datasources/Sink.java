@@ -2,12 +2,31 @@ package io.sesam.datasources;
 
 import com.google.gson.stream.JsonReader;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 
 public interface Sink {
+    String getTable();
+
     void configure(Connection conn) throws SQLException;
 
+    void configure(TableMetadata metadata);
+
+    /**
+     * Makes a round trip to the table that does not change it, so that the first write does not pay for
+     * statement compilation and driver class loading. The transaction is rolled back.
+     */
+    void warmUp(Connection conn) throws SQLException;
+
     void readEntities(JsonReader jr, Connection conn, boolean isFull) throws SQLException, IOException;
+
+    /**
+     * Reads newline delimited JSON entities, committing in batches of lines.
+     *
+     * @param offset the number of lines to skip, i.e. that were committed by an earlier post
+     * @return the number of lines committed, including the skipped ones
+     */
+    long readLines(BufferedReader reader, Connection conn, boolean isFull, long offset) throws LineOffsetException;
 }
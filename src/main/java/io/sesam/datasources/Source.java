@@ -8,6 +8,43 @@ public interface Source {
     
     public String getQuery(String since);
 
+    /**
+     * @param columns the columns to select, or all columns if empty
+     * @param filterColumns columns that must be equal to a parameter, bound after the since parameter, if any
+     */
+    public String getQuery(String since, List<String> columns, List<String> filterColumns);
+
+    /**
+     * @return true if the query for a since value has a parameter for it
+     */
+    public boolean hasSinceParameter();
+
     public String getUpdatedColumn();
-    
+
+    public CellLimit getCellLimit();
+
+    public ReadSettings getReadSettings();
+
+    /**
+     * @return the maximum number of seconds a read may take, including streaming the rows, or 0 for no limit
+     */
+    public int getQueryTimeout();
+
+    /**
+     * @return the table the source reads from, or null if the source is not a plain table
+     */
+    public String getTable();
+
+    public void configure(TableMetadata metadata);
+
+    /**
+     * @return the known columns of the source, or null if they are not known
+     */
+    public List<String> getColumnNames();
+
+    /**
+     * @return the java.sql.Types of the column, or null if it is not known
+     */
+    public Integer getColumnType(String column);
+
 }
@@ -1,16 +1,24 @@
 package io.sesam.datasources;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 public class Table implements Source {
 
+    private final String tableName;
     private final String queryFull;
     private final String queryInc;
     private final List<String> primaryKeys;
     private final String updatedColumn;
+    private final CellLimit cellLimit;
+    private final ReadSettings readSettings;
+    private final int queryTimeout;
+    private volatile Map<String,Integer> columnTypes;
 
-    public Table(String tableName, List<String> primaryKeys, String updatedColumn) {
-        this.queryFull = "select * from " + tableName;
+    public Table(String tableName, List<String> primaryKeys, String updatedColumn, CellLimit cellLimit, ReadSettings readSettings, int queryTimeout) {
+        this.tableName = tableName;
+        this.queryFull = "select * from " + from(tableName, readSettings);
         if (updatedColumn != null) {
             this.queryInc = queryFull + " where " + updatedColumn + " > ?";
         } else {
@@ -18,6 +26,9 @@ public class Table implements Source {
         }
         this.primaryKeys = primaryKeys;
         this.updatedColumn = updatedColumn;
+        this.cellLimit = cellLimit;
+        this.readSettings = readSettings;
+        this.queryTimeout = queryTimeout;
     }
 
     @Override
@@ -28,7 +39,36 @@ public class Table implements Source {
             return queryFull;
         }
     }
+
+    @Override
+    public String getQuery(String since, List<String> columns, List<String> filterColumns) {
+        if (columns.isEmpty() && filterColumns.isEmpty()) {
+            return getQuery(since);
+        }
+        String query = "select " + (columns.isEmpty() ? "*" : String.join(", ", columns)) + " from " + from(tableName, readSettings);
+        List<String> predicates = new ArrayList<>();
+        if (since != null && hasSinceParameter()) {
+            predicates.add(updatedColumn + " > ?");
+        }
+        for (String filterColumn : filterColumns) {
+            predicates.add(filterColumn + " = ?");
+        }
+        if (!predicates.isEmpty()) {
+            query += " where " + String.join(" and ", predicates);
+        }
+        return query;
+    }
     
+    @Override
+    public boolean hasSinceParameter() {
+        return updatedColumn != null;
+    }
+
+    private static String from(String tableName, ReadSettings readSettings) {
+        String tableHint = readSettings.getTableHint();
+        return tableHint != null ? tableName + " " + tableHint : tableName;
+    }
+
     @Override
     public List<String> getPrimaryKeys() {
         return primaryKeys;
@@ -39,4 +79,41 @@ public class Table implements Source {
         return updatedColumn;
     }
 
+    @Override
+    public CellLimit getCellLimit() {
+        return cellLimit;
+    }
+
+    @Override
+    public ReadSettings getReadSettings() {
+        return readSettings;
+    }
+
+    @Override
+    public int getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    @Override
+    public String getTable() {
+        return tableName;
+    }
+
+    @Override
+    public void configure(TableMetadata metadata) {
+        this.columnTypes = metadata.getColumnTypes();
+    }
+
+    @Override
+    public List<String> getColumnNames() {
+        Map<String,Integer> columnTypes = this.columnTypes;
+        return columnTypes != null ? new ArrayList<>(columnTypes.keySet()) : null;
+    }
+
+    @Override
+    public Integer getColumnType(String column) {
+        Map<String,Integer> columnTypes = this.columnTypes;
+        return columnTypes != null ? columnTypes.get(column) : null;
+    }
+
 }
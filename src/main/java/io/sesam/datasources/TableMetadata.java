@@ -0,0 +1,127 @@
+package io.sesam.datasources;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Table, column, type and primary key information as discovered through {@link DatabaseMetaData}.
+ */
+public class TableMetadata {
+
+    private final String table;
+    private final Map<String,Integer> columns;
+    @SerializedName("column-sizes")
+    private final Map<String,Integer> columnSizes;
+    @SerializedName("primary-key")
+    private final List<String> primaryKeys;
+    private final String fingerprint;
+
+    public TableMetadata(String table, Map<String,Integer> columns, Map<String,Integer> columnSizes, List<String> primaryKeys) {
+        this.table = table;
+        this.columns = columns;
+        this.columnSizes = columnSizes;
+        this.primaryKeys = primaryKeys;
+        this.fingerprint = computeFingerprint();
+    }
+
+    public static TableMetadata read(Connection conn, String table) throws SQLException {
+        // TODO handle case matching
+        DatabaseMetaData metaData = conn.getMetaData();
+        boolean tableFound = false;
+        try (ResultSet tables = metaData.getTables(null, null, table, null)) {
+            while (tables.next()) {
+                if (table.equals(tables.getString(3))) {
+                    tableFound = true;
+                    break;
+                }
+            }
+        }
+        if (!tableFound) {
+            throw new RuntimeException("No such table found: " + table);
+        }
+        Map<String,Integer> columns = new LinkedHashMap<>();
+        Map<String,Integer> columnSizes = new LinkedHashMap<>();
+        try (ResultSet rs = metaData.getColumns(null, null, table, null)) {
+            while (rs.next()) {
+                columns.put(rs.getString(4), rs.getInt(5));
+                columnSizes.put(rs.getString(4), rs.getInt(7));
+            }
+        }
+        List<String> primaryKeys = new ArrayList<>();
+        try (ResultSet rs = metaData.getPrimaryKeys(null, null, table)) {
+            while (rs.next()) {
+                primaryKeys.add(rs.getString(4));
+            }
+        }
+        return new TableMetadata(table, columns, columnSizes, primaryKeys);
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public List<String> getColumnNames() {
+        return new ArrayList<>(columns.keySet());
+    }
+
+    /**
+     * @return the java.sql.Types of each column, in column order
+     */
+    public Map<String,Integer> getColumnTypes() {
+        return Collections.unmodifiableMap(columns);
+    }
+
+    /**
+     * @return the COLUMN_SIZE of the column, e.g. the maximum number of characters of a character column, or null
+     *         if there is no such column
+     */
+    public Integer getColumnSize(String column) {
+        return columnSizes.get(column);
+    }
+
+    public List<String> getPrimaryKeys() {
+        return Collections.unmodifiableList(primaryKeys);
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return true if the stored fingerprint still matches the content, i.e. the entry was not tampered with
+     */
+    public boolean isIntact() {
+        return fingerprint != null && fingerprint.equals(computeFingerprint());
+    }
+
+    private String computeFingerprint() {
+        StringBuilder sb = new StringBuilder(table);
+        for (Map.Entry<String, Integer> column : columns.entrySet()) {
+            sb.append('|').append(column.getKey()).append(':').append(column.getValue())
+                    .append(':').append(columnSizes.get(column.getKey()));
+        }
+        sb.append('|').append(primaryKeys);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest(sb.toString().getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package io.sesam.datasources;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BinaryEntityEncoderTest {
+
+    private Connection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        conn = DriverManager.getConnection("jdbc:h2:mem:binary", "sa", "");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("create table ITEM (ID int primary key, UPDATED bigint, PRICE decimal(10,3), BORN date,"
+                    + " DATA varbinary(10), NAME varchar(10))");
+            stmt.execute("insert into ITEM values (1, 10, 12.5, '2016-02-29', X'0102', 'a'), (2, null, null, null, null, null),"
+                    + " (3, 30, -0.001, '1969-12-31', X'', 'c')");
+            stmt.execute("create table LOB (ID int primary key, TEXT clob, DATA blob)");
+        }
+        // below, at and above a limit of 5, a surrogate pair split by the limit and multibyte characters
+        String[] texts = {"abc", "abcde", "abcdefg", "abcd\uD83D\uDE00", "\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9"};
+        int[] lengths = {3, 5, 7, 6, 9000};
+        try (PreparedStatement stmt = conn.prepareStatement("insert into LOB values (?, ?, ?)")) {
+            for (int i=0; i < texts.length; i++) {
+                stmt.setInt(1, i + 1);
+                stmt.setString(2, texts[i]);
+                stmt.setBytes(3, JsonEntityEncoderTest.bytes(lengths[i]));
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        conn.close();
+    }
+
+    @Test
+    public void writesHeaderFramesAndEnd() throws Exception {
+        Decoded decoded = decode(write("select ID, UPDATED, PRICE, BORN, DATA, NAME from ITEM order by ID", 2,
+                CellLimit.UNLIMITED, null));
+        assertEquals(Arrays.asList("_id", "_updated", "ID", "UPDATED", "PRICE", "BORN", "DATA", "NAME"), decoded.names);
+        assertEquals(Arrays.asList(Types.VARCHAR, Types.VARCHAR, Types.INTEGER, Types.BIGINT, Types.DECIMAL, Types.DATE,
+                Types.VARBINARY, Types.VARCHAR), decoded.types);
+        assertEquals(3, decoded.rows.size());
+        assertNull(decoded.error);
+
+        List<Object> first = decoded.rows.get(0);
+        assertEquals(Arrays.asList("1", "10", 1, 10L), first.subList(0, 4));
+        assertEquals(new BigDecimal("12.500"), first.get(4));
+        assertEquals(3, ((BigDecimal) first.get(4)).scale());
+        assertEquals(LocalDate.of(2016, 2, 29), first.get(5));
+        assertArrayEquals(new byte[] {1, 2}, (byte[]) first.get(6));
+        assertEquals("a", first.get(7));
+
+        // the primary key is never null, all the other values are
+        assertEquals(Arrays.asList("2", null, 2, null, null, null, null, null), decoded.rows.get(1));
+
+        List<Object> third = decoded.rows.get(2);
+        assertEquals(new BigDecimal("-0.001"), third.get(4));
+        assertEquals(LocalDate.of(1969, 12, 31), third.get(5));
+        assertArrayEquals(new byte[0], (byte[]) third.get(6));
+    }
+
+    @Test
+    public void leavesOutUpdatedWithoutUpdatedColumn() throws Exception {
+        Decoded decoded = decode(write("select ID, NAME from ITEM order by ID", 0, CellLimit.UNLIMITED, null));
+        assertEquals(Arrays.asList("_id", "ID", "NAME"), decoded.names);
+        assertEquals(Arrays.asList("1", 1, "a"), decoded.rows.get(0));
+    }
+
+    @Test
+    public void writesErrorFrameWithoutFailedRow() throws Exception {
+        byte[] output = write("select ID, UPDATED, PRICE, BORN, DATA, NAME from ITEM order by ID", 2, CellLimit.UNLIMITED,
+                (rs, method, column) -> {
+                    if ("getDate".equals(method) && rs.getInt(1) == 2) {
+                        throw new SQLException("Conversion failed");
+                    }
+                    return null;
+                });
+        Decoded decoded = decode(output);
+        // the half written second row is left out of the frame
+        assertEquals(1, decoded.rows.size());
+        assertEquals("1", decoded.rows.get(0).get(0));
+        assertEquals("Conversion failed", decoded.error);
+    }
+
+    @Test
+    public void rejectsLargeObjectsWithoutCellLimit() throws Exception {
+        for (int type : new int[] {Types.BLOB, Types.CLOB, Types.LONGVARBINARY, Types.LONGVARCHAR, Types.LONGNVARCHAR}) {
+            BinaryEntityEncoder encoder = new BinaryEntityEncoder(new ByteArrayOutputStream());
+            try {
+                encoder.begin(new String[] {"ID", "DATA"}, new int[] {Types.INTEGER, type}, new int[] {1}, 0, CellLimit.UNLIMITED);
+                fail("Expected type " + type + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                assertEquals("The binary format needs a max-cell-size on the source to return column: DATA", e.getMessage());
+            }
+            // a cell limit bounds the buffer of the value
+            new BinaryEntityEncoder(new ByteArrayOutputStream()).begin(new String[] {"ID", "DATA"},
+                    new int[] {Types.INTEGER, type}, new int[] {1}, 0, new CellLimit(100, false));
+        }
+    }
+
+    @Test
+    public void truncatesOversizedLargeObjects() throws Exception {
+        Decoded decoded = decode(write("select ID, TEXT, DATA from LOB order by ID", 0, new CellLimit(5, false), null));
+        assertEquals(Arrays.asList(Types.VARCHAR, Types.INTEGER, Types.CLOB, Types.BLOB), decoded.types);
+        // a surrogate pair split by the limit would otherwise be left pending in the writer of the next cell
+        assertEquals(Arrays.asList("1", "2", "3", "4", "5"), column(decoded, 0));
+        assertEquals(Arrays.asList("abc", "abcde", "abcde", "abcd", "\u00e9\u00e9\u00e9\u00e9\u00e9"), column(decoded, 2));
+        int[] lengths = {3, 5, 5, 5, 5};
+        for (int i=0; i < lengths.length; i++) {
+            assertArrayEquals(JsonEntityEncoderTest.bytes(lengths[i]), (byte[]) decoded.rows.get(i).get(3));
+        }
+    }
+
+    @Test
+    public void skipsOversizedLargeObjects() throws Exception {
+        Decoded decoded = decode(write("select ID, TEXT, DATA from LOB order by ID", 0, new CellLimit(5, true), null));
+        assertEquals(Arrays.asList("abc", "abcde", null, null, null), column(decoded, 2));
+        assertArrayEquals(JsonEntityEncoderTest.bytes(3), (byte[]) decoded.rows.get(0).get(3));
+        assertArrayEquals(JsonEntityEncoderTest.bytes(5), (byte[]) decoded.rows.get(1).get(3));
+        assertEquals(Arrays.asList(null, null, null), column(decoded, 3).subList(2, 5));
+    }
+
+    @Test
+    public void truncatesLargeObjectsAcrossChunks() throws Exception {
+        // 8192 bytes are read at a time
+        for (int limit : new int[] {8191, 8192, 8193}) {
+            Decoded decoded = decode(write("select ID, DATA from LOB where ID = 5", 0, new CellLimit(limit, false), null));
+            assertArrayEquals(JsonEntityEncoderTest.bytes(limit), (byte[]) decoded.rows.get(0).get(2));
+        }
+        Decoded decoded = decode(write("select ID, DATA from LOB where ID = 5", 0, new CellLimit(9000, true), null));
+        assertArrayEquals(JsonEntityEncoderTest.bytes(9000), (byte[]) decoded.rows.get(0).get(2));
+        decoded = decode(write("select ID, DATA from LOB where ID = 5", 0, new CellLimit(8999, true), null));
+        assertNull(decoded.rows.get(0).get(2));
+    }
+
+    private static List<Object> column(Decoded decoded, int index) {
+        List<Object> values = new ArrayList<>();
+        for (List<Object> row : decoded.rows) {
+            values.add(row.get(index));
+        }
+        return values;
+    }
+
+    /**
+     * Writes the rows like DataSystem does, ending the stream with an error if a row fails to be read.
+     */
+    private byte[] write(String sql, int updatedIndex, CellLimit cellLimit, JsonEntityEncoderTest.Failure failure) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEntityEncoder encoder = new BinaryEntityEncoder(out);
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+            ResultSetMetaData rsmd = rs.getMetaData();
+            String[] colNames = new String[rsmd.getColumnCount()];
+            int[] colTypes = new int[colNames.length];
+            for (int i=0; i < colNames.length; i++) {
+                colNames[i] = rsmd.getColumnName(i+1);
+                colTypes[i] = rsmd.getColumnType(i+1);
+            }
+            ResultSet source = failure != null ? JsonEntityEncoderTest.failing(rs, failure) : rs;
+            encoder.begin(colNames, colTypes, new int[] {1}, updatedIndex, cellLimit);
+            try {
+                while (rs.next()) {
+                    encoder.writeEntity(source);
+                }
+                encoder.end();
+            } catch (SQLException e) {
+                encoder.error(e.getMessage());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static class Decoded {
+        final List<String> names = new ArrayList<>();
+        final List<Integer> types = new ArrayList<>();
+        final List<List<Object>> rows = new ArrayList<>();
+        String error;
+    }
+
+    /**
+     * Reads the stream as documented on {@link BinaryEntityEncoder}, checking that each frame is as long as its
+     * rows and that nothing follows the end or error marker.
+     */
+    private static Decoded decode(byte[] output) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(output));
+        byte[] magic = new byte[3];
+        in.readFully(magic);
+        assertEquals("SJR", new String(magic, StandardCharsets.US_ASCII));
+        assertEquals(BinaryEntityEncoder.VERSION, in.readByte());
+        Decoded decoded = new Decoded();
+        int columnCount = in.readInt();
+        for (int i=0; i < columnCount; i++) {
+            decoded.names.add(in.readUTF());
+            decoded.types.add(in.readInt());
+        }
+        while (true) {
+            int length = in.readInt();
+            if (length == 0) {
+                break;
+            }
+            if (length == -1) {
+                decoded.error = in.readUTF();
+                break;
+            }
+            int rowCount = in.readInt();
+            int available = in.available();
+            for (int i=0; i < rowCount; i++) {
+                List<Object> row = new ArrayList<>();
+                for (int type : decoded.types) {
+                    row.add(in.readByte() == 0 ? null : readValue(in, type));
+                }
+                decoded.rows.add(row);
+            }
+            assertEquals(length, available - in.available());
+        }
+        assertEquals(0, in.available());
+        return decoded;
+    }
+
+    private static Object readValue(DataInputStream in, int type) throws IOException {
+        switch (type) {
+        case Types.BIGINT:
+            return in.readLong();
+        case Types.INTEGER:
+            return in.readInt();
+        case Types.DECIMAL: {
+            int scale = in.readInt();
+            byte[] unscaled = new byte[in.readInt()];
+            in.readFully(unscaled);
+            return new BigDecimal(new BigInteger(unscaled), scale);
+        }
+        case Types.DATE:
+            return LocalDate.ofEpochDay(in.readLong());
+        case Types.VARCHAR:
+        case Types.CLOB: {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        case Types.VARBINARY:
+        case Types.BLOB: {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return bytes;
+        }
+        default:
+            throw new AssertionError("Unexpected type: " + type);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.sesam.datasources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zaxxer.hikari.HikariConfig;
+
+public class ConnectionPoolTest {
+
+    private static final long TIMEOUT = 500;
+
+    private ConnectionPool pool;
+    private ConnectionPool.Quota a;
+    private ConnectionPool.Quota b;
+
+    @Before
+    public void setUp() {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:h2:mem:pool");
+        config.setUsername("sa");
+        config.setConnectionTimeout(TIMEOUT);
+        config.setMaximumPoolSize(1);
+        pool = new ConnectionPool(config);
+        a = pool.newQuota("a", 1);
+        b = pool.newQuota("b", 1);
+    }
+
+    @After
+    public void tearDown() {
+        a.close();
+        b.close();
+    }
+
+    @Test
+    public void waitsForQuotaWithinTimeout() throws Exception {
+        try (Connection conn = a.getConnection()) {
+            assertTimesOut(a);
+        }
+        a.getConnection().close();
+        assertEquals(1, a.getStats().getFailed());
+    }
+
+    @Test
+    public void waitsForSharedPoolWithinTimeout() throws Exception {
+        // b has a free quota slot, but the only pooled connection is taken by a
+        try (Connection conn = a.getConnection()) {
+            assertTimesOut(b);
+        }
+        b.getConnection().close();
+    }
+
+    @Test
+    public void waitsForQuotaAndSharedPoolWithinTimeout() throws Exception {
+        try (Connection conn = a.getConnection()) {
+            // holds the only quota slot of b while it waits for the pool, until it times out
+            Thread other = new Thread(() -> {
+                try {
+                    b.getConnection().close();
+                } catch (SQLException e) {
+                    // expected
+                }
+            });
+            other.start();
+            Thread.sleep(100);
+            // the time spent waiting for the quota slot is not given to the pool again
+            assertTimesOut(b);
+            other.join();
+        }
+    }
+
+    private static void assertTimesOut(ConnectionPool.Quota quota) {
+        long start = System.nanoTime();
+        try {
+            quota.getConnection();
+            fail("Expected the wait for a connection to time out");
+        } catch (SQLException e) {
+            long waited = (System.nanoTime() - start) / 1000000;
+            assertTrue("Waited " + waited + "ms", waited >= TIMEOUT - 50 && waited < TIMEOUT * 3 / 2);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package io.sesam.datasources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+public class DataSystemTest {
+
+    private static final String JDBC_URL = "jdbc:h2:mem:projection;DB_CLOSE_DELAY=-1";
+
+    private static Connection conn;
+    private static Mapper mapper;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        conn = DriverManager.getConnection(JDBC_URL, "sa", "");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("create table PERSON (ID int primary key, NAME varchar(100), KIND varchar(10), UPDATED int)");
+            stmt.execute("insert into PERSON values (1, 'a', 'x', 1), (2, 'b', 'x', 2), (3, 'c', 'y', 3), (4, 'd', 'x', 4)");
+            stmt.execute("create table PET (ID int primary key, OWNER int)");
+            stmt.execute("insert into PET values (1, 1), (2, 2), (3, 2)");
+        }
+
+        File config = File.createTempFile("projection", ".json");
+        config.deleteOnExit();
+        try (Writer writer = new FileWriter(config)) {
+            writer.write("{\"h2\": {\"jdbc-url\": \"" + JDBC_URL + "\", \"username\": \"sa\", \"password\": \"\", \"sources\": {"
+                    + "\"PERSON\": {\"primary-key\": \"ID\", \"updated-column\": \"UPDATED\"},"
+                    + "\"PET\": {\"primary-key\": \"ID\"},"
+                    + "\"PERSONS\": {\"primary-key\": \"ID\", \"updated-column\": \"UPDATED\", \"query\": \"select * from PERSON\","
+                    + " \"since\": \"where UPDATED > ${since}\"}}}}");
+        }
+        mapper = Mapper.load(config.getPath());
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        mapper.close();
+        conn.close();
+    }
+
+    @Test
+    public void projectsColumnsWithKeyAndUpdated() throws Exception {
+        JsonArray entities = read("PERSON", null, Collections.singletonList("name"), Collections.emptyMap());
+        assertEquals(Arrays.asList("1", "2", "3", "4"), values(entities, "_id"));
+        assertEquals(Arrays.asList("a", "b", "c", "d"), values(entities, "NAME"));
+        TreeSet<String> names = new TreeSet<>();
+        for (Map.Entry<String, JsonElement> property : entities.get(0).getAsJsonObject().entrySet()) {
+            names.add(property.getKey());
+        }
+        assertEquals(new TreeSet<>(Arrays.asList("_id", "_updated", "ID", "NAME", "UPDATED")), names);
+    }
+
+    @Test
+    public void bindsSinceBeforeFilters() throws Exception {
+        JsonArray entities = read("PERSON", "1", Collections.singletonList("NAME"), Collections.singletonMap("kind", "x"));
+        assertEquals(Arrays.asList("2", "4"), values(entities, "_id"));
+    }
+
+    @Test
+    public void bindsFiltersWithoutUpdatedColumn() throws Exception {
+        // the source has no updated column, so the since value is ignored and the filter is the first parameter
+        JsonArray entities = read("PET", "1", Collections.emptyList(), Collections.singletonMap("OWNER", "2"));
+        assertEquals(Arrays.asList("2", "3"), values(entities, "_id"));
+    }
+
+    @Test
+    public void rejectsUnknownColumns() throws Exception {
+        assertRejected("PERSON", Collections.singletonList("AGE"), Collections.emptyMap());
+        assertRejected("PERSON", Collections.emptyList(), Collections.singletonMap("AGE", "1"));
+    }
+
+    @Test
+    public void rejectsProjectionOfQuery() throws Exception {
+        assertEquals(Arrays.asList("3", "4"), values(read("PERSONS", "2", Collections.emptyList(), Collections.emptyMap()), "_id"));
+        assertRejected("PERSONS", Collections.singletonList("NAME"), Collections.emptyMap());
+        assertRejected("PERSONS", Collections.emptyList(), Collections.singletonMap("KIND", "x"));
+    }
+
+    private static void assertRejected(String sourceId, List<String> columns, Map<String,String> filters) throws Exception {
+        try {
+            read(sourceId, null, columns, filters);
+            fail("Expected " + columns + " " + filters + " to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected, a 400 response
+        }
+    }
+
+    private static JsonArray read(String sourceId, String since, List<String> columns, Map<String,String> filters) throws Exception {
+        StringWriter writer = new StringWriter();
+        mapper.writeEntities(new JsonEntityEncoder(writer), "h2", sourceId, since, columns, filters);
+        return new JsonParser().parse(writer.toString()).getAsJsonArray();
+    }
+
+    private static List<String> values(JsonArray entities, String name) {
+        List<String> values = new ArrayList<>();
+        for (JsonElement entity : entities) {
+            values.add(entity.getAsJsonObject().get(name).getAsString());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,141 @@
+package io.sesam.datasources;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EntityKeysTest {
+
+    private Connection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        conn = DriverManager.getConnection("jdbc:h2:mem:keys", "sa", "");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        conn.close();
+    }
+
+    @Test
+    public void writesCompositeId() throws Exception {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("create table T (A int, B varchar(10), C nvarchar(10))");
+            stmt.execute("insert into T values (-12, 'x:\"y', null)");
+        }
+        EntityKeys keys = new EntityKeys(new int[] {Types.INTEGER, Types.VARCHAR, Types.NVARCHAR}, new int[] {1, 2, 3}, 0);
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("select A, B, C from T")) {
+            rs.next();
+            keys.read(rs);
+        }
+        assertEquals("-12:x:\\\"y:null", id(keys, true));
+        assertEquals("-12:x:\"y:null", id(keys, false));
+        // the values are reused when the key columns are written as fields
+        assertEquals(0, keys.getSlot(1));
+        assertEquals(-12, keys.getLong(0));
+        assertEquals("x:\"y", keys.getString(1));
+    }
+
+    @Test
+    public void writesTimestampUpdated() throws Exception {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("create table T (ID int, UPDATED timestamp)");
+            stmt.execute("insert into T values (1, '2016-01-01 00:00:01'), (2, '2016-02-03 04:05:06.07'),"
+                    + " (3, '0999-12-31 23:59:59.000000001'), (4, null)");
+        }
+        assertEquals(Arrays.asList("2016-01-01 00:00:01.0", "2016-02-03 04:05:06.07", "0999-12-31 23:59:59.000000001", null),
+                updated(Types.TIMESTAMP));
+    }
+
+    @Test
+    public void roundTripsTimestampWithTimeZoneUpdated() throws Exception {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("create table T (ID int, UPDATED timestamp)");
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("insert into T values (?, ?)")) {
+            String[] instants = {"2016-01-01T00:00:01Z", "2016-01-01T00:00:01.5Z", "2016-01-01T00:00:01.500000001Z"};
+            for (int i=0; i < instants.length; i++) {
+                stmt.setInt(1, i + 1);
+                stmt.setTimestamp(2, Timestamp.from(Instant.parse(instants[i])), DataSystem.UTC_CALENDAR);
+                stmt.execute();
+            }
+        }
+        List<String> updated = updated(Types.TIMESTAMP_WITH_TIMEZONE);
+        assertEquals(Arrays.asList("2016-01-01T00:00:01.0Z", "2016-01-01T00:00:01.5Z", "2016-01-01T00:00:01.500000001Z"),
+                updated);
+        assertEquals(Arrays.asList(3), after(Types.TIMESTAMP_WITH_TIMEZONE, updated.get(1)));
+    }
+
+    @Test
+    public void roundTripsRowversionUpdated() throws Exception {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("create table T (ID int, UPDATED binary(8))");
+            stmt.execute("insert into T values (1, X'00000000000007D0'), (2, X'000000000000ABFF'), (3, X'0000000000010000')");
+        }
+        List<String> updated = updated(Types.BINARY);
+        assertEquals(Arrays.asList("00000000000007D0", "000000000000ABFF", "0000000000010000"), updated);
+        assertEquals(Arrays.asList(2), equal(Types.BINARY, updated.get(1)));
+        assertEquals(Arrays.asList(2), equal(Types.VARBINARY, "0x" + updated.get(1).toLowerCase()));
+    }
+
+    private static String id(EntityKeys keys, boolean escape) throws Exception {
+        StringWriter writer = new StringWriter();
+        keys.writeId(writer, escape);
+        return writer.toString();
+    }
+
+    private List<String> updated(int updatedType) throws Exception {
+        EntityKeys keys = new EntityKeys(new int[] {Types.INTEGER, updatedType}, new int[] {1}, 2);
+        List<String> updated = new ArrayList<>();
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("select ID, UPDATED from T order by ID")) {
+            while (rs.next()) {
+                keys.read(rs);
+                if (keys.isUpdatedNull()) {
+                    updated.add(null);
+                } else {
+                    StringWriter writer = new StringWriter();
+                    keys.writeUpdated(writer, true);
+                    updated.add(writer.toString());
+                }
+            }
+        }
+        return updated;
+    }
+
+    private List<Integer> after(int updatedType, String since) throws Exception {
+        return ids("select ID from T where UPDATED > ? order by ID", updatedType, since);
+    }
+
+    private List<Integer> equal(int updatedType, String value) throws Exception {
+        return ids("select ID from T where UPDATED = ? order by ID", updatedType, value);
+    }
+
+    private List<Integer> ids(String sql, int updatedType, String value) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            ParameterBinder.bind(stmt, 1, updatedType, value);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getInt(1));
+                }
+            }
+        }
+        return ids;
+    }
+}
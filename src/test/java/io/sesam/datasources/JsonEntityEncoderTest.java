@@ -0,0 +1,246 @@
+package io.sesam.datasources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+public class JsonEntityEncoderTest {
+
+    private static final String[] COL_NAMES = {"ID", "NAME", "DATA"};
+    private static final int[] COL_TYPES = {Types.INTEGER, Types.VARCHAR, Types.VARBINARY};
+
+    private Connection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        conn = DriverManager.getConnection("jdbc:h2:mem:encoder", "sa", "");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("create table ITEM (ID int primary key, NAME varchar(100), DATA varbinary(100))");
+            stmt.execute("insert into ITEM values (1, 'a', X'0102'), (2, 'b', X'0304'), (3, 'c', X'0506')");
+            stmt.execute("create table LOB (ID int primary key, TEXT clob, DATA blob)");
+        }
+        // below, at and above a limit of 5, a surrogate pair split by the limit and multibyte characters
+        insertLob(1, "abc", 3);
+        insertLob(2, "abcde", 5);
+        insertLob(3, "abcdefg", 7);
+        insertLob(4, "abcd\uD83D\uDE00", 6);
+        insertLob(5, "\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9\u00e9", 9000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        conn.close();
+    }
+
+    @Test
+    public void closesEntityThatFailsMidObject() throws Exception {
+        String output = writeFailing((rs, method, column) -> {
+            if ("getString".equals(method) && column == 2 && rs.getInt(1) == 2) {
+                throw new SQLException("Conversion failed");
+            }
+            return null;
+        });
+        JsonArray entities = parse(output);
+        assertEquals(2, entities.size());
+        assertEquals("a", entities.get(0).getAsJsonObject().get("NAME").getAsString());
+        // the entity that failed is flagged, and the columns after the failing one are left out
+        JsonObject failed = entities.get(1).getAsJsonObject();
+        assertEquals("2", failed.get("_id").getAsString());
+        assertEquals("Conversion failed", failed.get("_error").getAsString());
+        assertFalse(failed.has("NAME"));
+        assertFalse(failed.has("DATA"));
+    }
+
+    @Test
+    public void closesStringThatFailsMidLargeObject() throws Exception {
+        String output = writeFailing((rs, method, column) -> {
+            if ("getBinaryStream".equals(method) && rs.getInt(1) == 2) {
+                return new InputStream() {
+                    int read;
+                    @Override
+                    public int read() throws IOException {
+                        if (read++ < 5) {
+                            return read;
+                        }
+                        throw new IOException("Connection reset by database");
+                    }
+                };
+            }
+            return null;
+        });
+        JsonArray entities = parse(output);
+        assertEquals(2, entities.size());
+        JsonObject failed = entities.get(1).getAsJsonObject();
+        assertEquals("b", failed.get("NAME").getAsString());
+        // the value is cut short in the middle of its base64, but the entity is flagged
+        assertEquals("~bAQID", failed.get("DATA").getAsString());
+        assertEquals("Not able to read large object: Connection reset by database", failed.get("_error").getAsString());
+    }
+
+    @Test
+    public void writesErrorBeforeFirstEntity() throws Exception {
+        String output = writeFailing((rs, method, column) -> {
+            if ("getLong".equals(method) && column == 1) {
+                throw new SQLException("Conversion failed");
+            }
+            return null;
+        });
+        JsonArray entities = parse(output);
+        assertEquals(1, entities.size());
+        assertEquals("Conversion failed", entities.get(0).getAsJsonObject().get("_error").getAsString());
+    }
+
+    @Test
+    public void truncatesOversizedLargeObjects() throws Exception {
+        JsonArray entities = writeLobs(new CellLimit(5, false));
+        assertEquals(Arrays.asList("abc", "abcde", "abcde", "abcd", "\u00e9\u00e9\u00e9\u00e9\u00e9"), values(entities, "TEXT"));
+        assertEquals(Arrays.asList(base64(3, 3), base64(5, 5), base64(7, 5), base64(6, 5), base64(9000, 5)), values(entities, "DATA"));
+    }
+
+    @Test
+    public void skipsOversizedLargeObjects() throws Exception {
+        JsonArray entities = writeLobs(new CellLimit(5, true));
+        assertEquals(Arrays.asList("abc", "abcde", null, null, null), values(entities, "TEXT"));
+        assertEquals(Arrays.asList(base64(3, 3), base64(5, 5), null, null, null), values(entities, "DATA"));
+    }
+
+    @Test
+    public void truncatesLargeObjectsAcrossChunks() throws Exception {
+        // 8192 bytes are read at a time, which is not a whole number of base64 groups
+        for (int limit : new int[] {8191, 8192, 8193, 8195}) {
+            assertEquals(base64(9000, limit), values(writeLobs(new CellLimit(limit, false)), "DATA").get(4));
+        }
+        assertEquals(base64(9000, 9000), values(writeLobs(new CellLimit(9000, true)), "DATA").get(4));
+        assertNull(values(writeLobs(new CellLimit(8999, true)), "DATA").get(4));
+    }
+
+    interface Failure {
+        /**
+         * @return a value to return instead of calling the result set, or null to call it
+         */
+        Object apply(ResultSet rs, String method, int column) throws Exception;
+    }
+
+    /**
+     * Writes the rows like DataSystem does, ending the stream with an error when a row fails to be read.
+     * Exceptions other than SQLException fail the test, since they would be taken for a client disconnect.
+     */
+    private String writeFailing(Failure failure) throws Exception {
+        StringWriter writer = new StringWriter();
+        JsonEntityEncoder encoder = new JsonEntityEncoder(writer);
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("select ID, NAME, DATA from ITEM order by ID")) {
+            ResultSet failing = failing(rs, failure);
+            encoder.begin(COL_NAMES, COL_TYPES, new int[] {1}, 0, CellLimit.UNLIMITED);
+            try {
+                while (rs.next()) {
+                    encoder.writeEntity(failing);
+                }
+                fail("Expected a row to fail");
+            } catch (SQLException e) {
+                encoder.error(e.getMessage());
+            }
+        }
+        return writer.toString();
+    }
+
+    private void insertLob(int id, String text, int length) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("insert into LOB values (?, ?, ?)")) {
+            stmt.setInt(1, id);
+            stmt.setString(2, text);
+            stmt.setBytes(3, bytes(length));
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * @return the bytes 0, 1, 2 and so on
+     */
+    static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i=0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private static String base64(int length, int limit) {
+        return "~b" + Base64.getEncoder().encodeToString(Arrays.copyOf(bytes(length), Math.min(length, limit)));
+    }
+
+    private JsonArray writeLobs(CellLimit cellLimit) throws Exception {
+        StringWriter writer = new StringWriter();
+        JsonEntityEncoder encoder = new JsonEntityEncoder(writer);
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("select ID, TEXT, DATA from LOB order by ID")) {
+            encoder.begin(new String[] {"ID", "TEXT", "DATA"}, new int[] {Types.INTEGER, Types.CLOB, Types.BLOB}, new int[] {1}, 0,
+                    cellLimit);
+            while (rs.next()) {
+                encoder.writeEntity(rs);
+            }
+            encoder.end();
+        }
+        return new JsonParser().parse(writer.toString()).getAsJsonArray();
+    }
+
+    private static List<String> values(JsonArray entities, String name) {
+        List<String> values = new ArrayList<>();
+        for (JsonElement entity : entities) {
+            JsonElement value = entity.getAsJsonObject().get(name);
+            values.add(value.isJsonNull() ? null : value.getAsString());
+        }
+        return values;
+    }
+
+    static ResultSet failing(ResultSet rs, Failure failure) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+                (proxy, method, args) -> {
+                    int column = args != null && args.length > 0 && args[0] instanceof Integer ? (Integer) args[0] : 0;
+                    Object result = failure.apply(rs, method.getName(), column);
+                    if (result != null) {
+                        return result;
+                    }
+                    try {
+                        return method.invoke(rs, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * @return the entities of the unclosed array that ends with the error object
+     */
+    private static JsonArray parse(String output) {
+        assertTrue(output, output.startsWith("[") && !output.endsWith("]"));
+        return new JsonParser().parse(output + "]").getAsJsonArray();
+    }
+}
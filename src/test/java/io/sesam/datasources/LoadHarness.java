@@ -0,0 +1,367 @@
+package io.sesam.datasources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.tools.Server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import spark.Spark;
+
+/**
+ * Load generator that runs the service against an embedded H2 server and reports throughput, latency
+ * percentiles, heap and GC usage and connection pool wait times.
+ *
+ * <pre>
+ * mvn -Ploadtest test -Dloadtest.rows=1000000 -Dloadtest.duration=60
+ * </pre>
+ *
+ * Settings are system properties: loadtest.rows and loadtest.wide-rows (rows in the narrow and wide source
+ * tables), loadtest.wide-columns, loadtest.duration (seconds), loadtest.readers and loadtest.writers (concurrent
+ * GET and POST clients), loadtest.batch (entities per POST), loadtest.updates and loadtest.deletes (fraction of
+ * posted entities that update or delete existing ones, the rest are inserts), loadtest.incremental (fraction of
+ * GETs with since) and loadtest.h2-port.
+ */
+public class LoadHarness {
+
+    static final String BASE_URL = "http://localhost:4567/loadtest/";
+    static final LocalDateTime EPOCH = LocalDateTime.of(2016, 1, 1, 0, 0);
+    static final DateTimeFormatter SINCE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.S");
+
+    final long rows = Long.getLong("loadtest.rows", 1000000);
+    final long wideRows = Long.getLong("loadtest.wide-rows", 100000);
+    final int wideColumns = Integer.getInteger("loadtest.wide-columns", 50);
+    final int duration = Integer.getInteger("loadtest.duration", 60);
+    final int readers = Integer.getInteger("loadtest.readers", 4);
+    final int writers = Integer.getInteger("loadtest.writers", 4);
+    final int batch = Integer.getInteger("loadtest.batch", 500);
+    final double updates = Double.parseDouble(System.getProperty("loadtest.updates", "0.6"));
+    final double deletes = Double.parseDouble(System.getProperty("loadtest.deletes", "0.1"));
+    final double incremental = Double.parseDouble(System.getProperty("loadtest.incremental", "0.5"));
+    final int h2Port = Integer.getInteger("loadtest.h2-port", 9123);
+
+    final Recorder gets = new Recorder("GET");
+    final Recorder posts = new Recorder("POST");
+
+    public static void main(String[] args) throws Exception {
+        new LoadHarness().run();
+    }
+
+    void run() throws Exception {
+        Server h2 = Server.createTcpServer("-tcpPort", Integer.toString(h2Port)).start();
+        String jdbcUrl = "jdbc:h2:tcp://localhost:" + h2Port + "/mem:loadtest;DB_CLOSE_DELAY=-1";
+        Mapper mapper = null;
+        try {
+            createTables(jdbcUrl);
+            File config = writeConfig(jdbcUrl);
+            mapper = Mapper.load(config.getPath());
+            App.serve(mapper);
+            Spark.awaitInitialization();
+            mapper.warmUp();
+
+            List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+            long gcCount = gcs.stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+            long gcTime = gcs.stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+
+            System.out.println("Running " + readers + " readers and " + writers + " writers for " + duration + "s");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+            ExecutorService executor = Executors.newFixedThreadPool(readers + writers);
+            for (int i=0; i < readers; i++) {
+                executor.submit(() -> read(deadline));
+            }
+            for (int i=0; i < writers; i++) {
+                int writer = i;
+                executor.submit(() -> write(writer, deadline));
+            }
+            executor.shutdown();
+            executor.awaitTermination(duration + 600, TimeUnit.SECONDS);
+
+            long peakHeap = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    peakHeap += pool.getPeakUsage().getUsed();
+                }
+            }
+            System.out.println();
+            gets.report(duration);
+            posts.report(duration);
+            System.out.println(String.format("Heap: peak %.1fMB of max %.1fMB",
+                    peakHeap / 1048576.0, Runtime.getRuntime().maxMemory() / 1048576.0));
+            System.out.println(String.format("GC: %d collections, %dms",
+                    gcs.stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum() - gcCount,
+                    gcs.stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum() - gcTime));
+            System.out.println("Connection pool: " + mapper.getConnectionStats("loadtest"));
+        } finally {
+            Spark.stop();
+            if (mapper != null) {
+                mapper.close();
+            }
+            h2.stop();
+        }
+    }
+
+    void createTables(String jdbcUrl) throws SQLException {
+        System.out.println("Creating " + rows + " narrow and " + wideRows + " wide rows");
+        try (Connection conn = DriverManager.getConnection(jdbcUrl, "sa", "");
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("create table NARROW (ID bigint primary key, NAME varchar(100), AMOUNT decimal(18,2), FLAG boolean, UPDATED timestamp)");
+            stmt.execute("insert into NARROW select X, 'name-' || X, X / 100.0, mod(X, 2) = 0, dateadd('SECOND', X, timestamp '2016-01-01 00:00:00') from system_range(1, " + rows + ")");
+            stmt.execute("create table NARROW_SINK (ID bigint primary key, NAME varchar(100), AMOUNT decimal(18,2), FLAG boolean)");
+
+            StringBuilder columns = new StringBuilder();
+            StringBuilder values = new StringBuilder();
+            for (int i=1; i <= wideColumns; i++) {
+                columns.append(", C").append(i).append(' ').append(wideColumnType(i));
+                values.append(", ").append(wideColumnValue(i));
+            }
+            stmt.execute("create table WIDE (ID bigint primary key" + columns + ", UPDATED timestamp)");
+            stmt.execute("insert into WIDE select X" + values + ", dateadd('SECOND', X, timestamp '2016-01-01 00:00:00') from system_range(1, " + wideRows + ")");
+            stmt.execute("create table WIDE_SINK (ID bigint primary key" + columns + ")");
+        }
+    }
+
+    static String wideColumnType(int column) {
+        switch (column % 3) {
+        case 0:
+            return "varchar(100)";
+        case 1:
+            return "int";
+        default:
+            return "double";
+        }
+    }
+
+    static String wideColumnValue(int column) {
+        switch (column % 3) {
+        case 0:
+            return "'value-' || X";
+        case 1:
+            return "mod(X, 1000)";
+        default:
+            return "X * 1.5";
+        }
+    }
+
+    File writeConfig(String jdbcUrl) throws IOException {
+        JsonObject sources = new JsonObject();
+        JsonObject sinks = new JsonObject();
+        for (String name : Arrays.asList("NARROW", "WIDE")) {
+            JsonObject source = new JsonObject();
+            source.addProperty("query", "select * from " + name);
+            source.addProperty("since", "where UPDATED > ${since}");
+            source.addProperty("primary-key", "ID");
+            source.addProperty("updated-column", "UPDATED");
+            sources.add(name.toLowerCase(), source);
+            JsonObject sink = new JsonObject();
+            sink.addProperty("table", name + "_SINK");
+            sink.addProperty("primary-key", "ID");
+            // the sink writes every property that is not blacklisted
+            JsonArray blacklist = new JsonArray();
+            blacklist.add("_id");
+            sink.add("blacklist", blacklist);
+            sinks.add(name.toLowerCase(), sink);
+        }
+        JsonObject system = new JsonObject();
+        system.addProperty("jdbc-url", jdbcUrl);
+        system.addProperty("username", "sa");
+        system.add("sources", sources);
+        system.add("sinks", sinks);
+        JsonObject root = new JsonObject();
+        root.add("loadtest", system);
+
+        File config = File.createTempFile("loadtest", ".json");
+        config.deleteOnExit();
+        Files.write(config.toPath(), root.toString().getBytes(StandardCharsets.UTF_8));
+        return config;
+    }
+
+    void read(long deadline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        byte[] buffer = new byte[65536];
+        while (System.nanoTime() < deadline) {
+            boolean wide = random.nextInt(4) == 0;
+            String url = BASE_URL + (wide ? "wide" : "narrow");
+            if (random.nextDouble() < incremental) {
+                // only the last few percent of the rows
+                long sinceRow = (long) ((wide ? wideRows : rows) * (0.95 + random.nextDouble() * 0.05));
+                url += "?since=" + encode(SINCE_FORMAT.format(EPOCH.plusSeconds(sinceRow)));
+            }
+            long start = System.nanoTime();
+            try {
+                HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+                int status = conn.getResponseCode();
+                long bytes = 0;
+                if (status == 200) {
+                    try (InputStream in = conn.getInputStream()) {
+                        int n;
+                        while ((n = in.read(buffer)) != -1) {
+                            bytes += n;
+                        }
+                    }
+                }
+                gets.record(status, System.nanoTime() - start, bytes, 0);
+            } catch (IOException e) {
+                gets.record(-1, System.nanoTime() - start, 0, 0);
+            }
+        }
+    }
+
+    void write(int writer, long deadline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // each writer only touches its own ids, so that concurrent batches do not conflict on the same rows
+        long[] created = new long[1];
+        while (System.nanoTime() < deadline) {
+            boolean wide = random.nextInt(4) == 0;
+            long start = 0;
+            try {
+                byte[] body = createBatch(wide, random, writer, created);
+                start = System.nanoTime();
+                HttpURLConnection conn = (HttpURLConnection) new URL(BASE_URL + (wide ? "wide" : "narrow")).openConnection();
+                conn.setRequestMethod("POST");
+                conn.setDoOutput(true);
+                conn.setRequestProperty("Content-Type", "application/json");
+                conn.setFixedLengthStreamingMode(body.length);
+                try (OutputStream out = conn.getOutputStream()) {
+                    out.write(body);
+                }
+                int status = conn.getResponseCode();
+                posts.record(status, System.nanoTime() - start, body.length, status == 200 ? batch : 0);
+            } catch (IOException e) {
+                posts.record(-1, System.nanoTime() - start, 0, 0);
+            }
+        }
+    }
+
+    byte[] createBatch(boolean wide, ThreadLocalRandom random, int writerIndex, long[] created) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(body, StandardCharsets.UTF_8)) {
+            JsonWriter jw = new JsonWriter(writer);
+            jw.beginArray();
+            for (int i=0; i < batch; i++) {
+                double kind = random.nextDouble();
+                long id;
+                if (kind < updates + deletes && created[0] > 0) {
+                    id = 1 + writerIndex + random.nextLong(created[0]) * writers;
+                } else {
+                    id = 1 + writerIndex + created[0]++ * writers;
+                }
+                jw.beginObject();
+                jw.name("_id").value(Long.toString(id));
+                jw.name("ID").value(id);
+                if (kind < deletes) {
+                    jw.name("_deleted").value(true);
+                } else if (wide) {
+                    for (int c=1; c <= wideColumns; c++) {
+                        jw.name("C" + c);
+                        switch (c % 3) {
+                        case 0:
+                            jw.value("value-" + random.nextInt());
+                            break;
+                        case 1:
+                            jw.value(random.nextInt(1000));
+                            break;
+                        default:
+                            jw.value(random.nextDouble() * 1000);
+                        }
+                    }
+                } else {
+                    jw.name("NAME").value("name-" + random.nextInt());
+                    jw.name("AMOUNT").value(random.nextInt(100000) / 100.0);
+                    jw.name("FLAG").value(random.nextBoolean());
+                }
+                jw.endObject();
+            }
+            jw.endArray();
+        }
+        return body.toByteArray();
+    }
+
+    static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "utf-8");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static class Recorder {
+        final String name;
+        long[] latencies = new long[1024];
+        int count;
+        int errors;
+        int rejected;
+        long bytes;
+        long entities;
+
+        Recorder(String name) {
+            this.name = name;
+        }
+
+        synchronized void record(int status, long nanos, long bytes, long entities) {
+            if (status == 429) {
+                rejected++;
+                return;
+            } else if (status != 200) {
+                errors++;
+                return;
+            }
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+            this.bytes += bytes;
+            this.entities += entities;
+        }
+
+        synchronized void report(int seconds) {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            System.out.println(String.format("%s: %d ok (%.1f/s), %d rejected, %d errors, %.1fMB/s, %.0f entities/s",
+                    name, count, count / (double) seconds, rejected, errors,
+                    bytes / 1048576.0 / seconds, entities / (double) seconds));
+            System.out.println(String.format("%s latency: p50 %.1fms, p90 %.1fms, p99 %.1fms, max %.1fms", name,
+                    percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99), percentile(sorted, 1.0)));
+        }
+
+        static double percentile(long[] sorted, double p) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+            return sorted[Math.max(index, 0)] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package io.sesam.datasources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.stream.JsonReader;
+
+public class MatcherSinkTest {
+
+    private Connection conn;
+    private final List<String> updates = new ArrayList<>();
+    private final List<Integer> nullTypes = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        conn = DriverManager.getConnection("jdbc:h2:mem:sink", "sa", "");
+        try (Statement stmt = conn.createStatement()) {
+            // no primary key constraint, so that entities without an ID can be written
+            stmt.execute("create table PERSON (ID int, NAME varchar(100), HASH varchar(40))");
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        conn.close();
+    }
+
+    @Test
+    public void hashDoesNotDependOnPropertyOrder() {
+        LinkedHashMap<String, Object> a = new LinkedHashMap<>();
+        a.put("ID", new BigDecimal("1"));
+        a.put("NAME", "x");
+        LinkedHashMap<String, Object> b = new LinkedHashMap<>();
+        b.put("NAME", "x");
+        b.put("ID", new BigDecimal("1.0"));
+        assertEquals(MatcherSink.hash(a), MatcherSink.hash(b));
+        assertEquals(MatcherSink.HASH_LENGTH, MatcherSink.hash(a).length());
+
+        b.put("NAME", "y");
+        assertNotEquals(MatcherSink.hash(a), MatcherSink.hash(b));
+    }
+
+    @Test
+    public void skipsUnchangedEntities() throws Exception {
+        MatcherSink sink = newSink("HASH");
+        write(sink, "[{\"ID\": 1, \"NAME\": \"a\"}, {\"ID\": 2, \"NAME\": \"b\"}]");
+        assertEquals(2, updates.size());
+
+        updates.clear();
+        write(sink, "[{\"NAME\": \"a\", \"ID\": 1.0}, {\"ID\": 2, \"NAME\": \"c\"}]");
+        assertEquals(1, updates.size());
+        assertEquals(Arrays.asList("1:a", "2:c"), rows());
+    }
+
+    @Test
+    public void skipsUnchangedEntitiesWithPaddedHash() throws Exception {
+        try (Statement stmt = conn.createStatement()) {
+            // H2 trims CHAR values, so the padding is kept in a wider VARCHAR instead
+            stmt.execute("alter table PERSON alter column HASH varchar(50)");
+        }
+        MatcherSink sink = newSink("HASH");
+        write(sink, "[{\"ID\": 1, \"NAME\": \"a\"}]");
+        try (Statement stmt = conn.createStatement()) {
+            // like a fixed width CHAR column on databases that pad it
+            stmt.execute("update PERSON set HASH = HASH || '          '");
+        }
+
+        updates.clear();
+        write(sink, "[{\"ID\": 1, \"NAME\": \"a\"}]");
+        assertEquals(0, updates.size());
+    }
+
+    @Test
+    public void coalescesVersionsOfAnEntity() throws Exception {
+        MatcherSink sink = newSink(null);
+        write(sink, "[{\"ID\": 1, \"NAME\": \"a\"}, {\"ID\": 2, \"NAME\": \"b\"}, {\"ID\": 1.0, \"NAME\": \"c\"}]");
+        assertEquals(2, updates.size());
+        assertEquals(Arrays.asList("2:b", "1:c"), rows());
+    }
+
+    @Test
+    public void doesNotCoalesceEntitiesWithoutKey() throws Exception {
+        MatcherSink sink = newSink(null);
+        write(sink, "[{\"NAME\": \"a\"}, {\"NAME\": \"b\"}, {\"ID\": null, \"NAME\": \"c\"}]");
+        assertEquals(3, updates.size());
+        assertEquals(Arrays.asList("null:a", "null:b", "null:c"), rows());
+    }
+
+    @Test
+    public void resumesLinesFromCommittedOffset() throws Exception {
+        MatcherSink sink = new MatcherSink("person", "PERSON", Collections.singletonList("ID"), false,
+                Collections.emptyList(), Collections.emptyList(), "sesam-timestamp", 2, null);
+        sink.configure(conn);
+        conn.setAutoCommit(false);
+        char[] tooLong = new char[200];
+        Arrays.fill(tooLong, 'x');
+        // the fourth line is too long for the column, so the chunk of the third and fourth line fails
+        String lines = "{\"ID\": 1, \"NAME\": \"a\"}\n{\"ID\": 2, \"NAME\": \"b\"}\n{\"ID\": 3, \"NAME\": \"c\"}\n"
+                + "{\"ID\": 4, \"NAME\": \"" + new String(tooLong) + "\"}\n{\"ID\": 5, \"NAME\": \"e\"}\n";
+        try {
+            sink.readLines(new BufferedReader(new StringReader(lines)), recordingUpdates(conn), false, 0);
+            fail("Expected the fourth line to fail");
+        } catch (LineOffsetException e) {
+            assertEquals(2, e.getOffset());
+        }
+        assertEquals(Arrays.asList("1:a", "2:b"), rows());
+
+        // the client resends the lines with the fourth one fixed, from the committed offset
+        updates.clear();
+        String fixed = lines.replace(new String(tooLong), "d");
+        assertEquals(5, sink.readLines(new BufferedReader(new StringReader(fixed)), recordingUpdates(conn), false, 2));
+        assertEquals(3, updates.size());
+        assertEquals(Arrays.asList("1:a", "2:b", "3:c", "4:d", "5:e"), rows());
+    }
+
+    @Test
+    public void rejectsNegativeLineOffset() throws Exception {
+        MatcherSink sink = newSink(null);
+        try {
+            sink.readLines(new BufferedReader(new StringReader("{\"ID\": 1}\n")), conn, false, -5);
+            fail("Expected the offset to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(Collections.emptyList(), rows());
+    }
+
+    @Test
+    public void warmsUpWithoutChangingTheTable() throws Exception {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("create table MEMBER (GROUP_ID int, PERSON_ID varchar(10), HASH varchar(40), primary key (GROUP_ID, PERSON_ID))");
+            stmt.execute("insert into MEMBER values (1, '2', null)");
+        }
+        for (String hashColumn : Arrays.asList(null, "HASH")) {
+            MatcherSink sink = new MatcherSink("member", "MEMBER", Collections.emptyList(), false,
+                    Collections.emptyList(), Collections.emptyList(), "sesam-timestamp", 1000, hashColumn);
+            sink.configure(conn);
+            nullTypes.clear();
+            sink.warmUp(typedNulls(conn));
+            assertEquals(Types.INTEGER, (int) nullTypes.get(0));
+            assertEquals(Types.VARCHAR, (int) nullTypes.get(1));
+            assertEquals(Types.INTEGER, (int) nullTypes.get(nullTypes.size() - 2));
+            assertEquals(Types.VARCHAR, (int) nullTypes.get(nullTypes.size() - 1));
+        }
+        conn.setAutoCommit(true);
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("select count(*) from MEMBER where GROUP_ID = 1 and PERSON_ID = '2'")) {
+            rs.next();
+            assertEquals(1, rs.getInt(1));
+        }
+    }
+
+    @Test
+    public void rejectsTooShortHashColumn() throws Exception {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("alter table PERSON alter column HASH varchar(20)");
+        }
+        try {
+            newSink("HASH");
+            fail("Expected the hash column to be rejected");
+        } catch (RuntimeException e) {
+            assertEquals("Hash column must hold at least 40 characters: HASH", e.getMessage());
+        }
+    }
+
+    private MatcherSink newSink(String hashColumn) throws Exception {
+        MatcherSink sink = new MatcherSink("person", "PERSON", Collections.singletonList("ID"), false,
+                Collections.emptyList(), Collections.emptyList(), "sesam-timestamp", 1000, hashColumn);
+        sink.configure(conn);
+        return sink;
+    }
+
+    private void write(MatcherSink sink, String json) throws Exception {
+        sink.readEntities(new JsonReader(new StringReader(json)), recordingUpdates(conn), false);
+    }
+
+    /**
+     * @return a connection that records the update statements it prepares, one for each entity written
+     */
+    private Connection recordingUpdates(Connection conn) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    if ("prepareStatement".equals(method.getName()) && ((String) args[0]).startsWith("UPDATE")) {
+                        updates.add((String) args[0]);
+                    }
+                    try {
+                        return method.invoke(conn, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * @return a connection whose statements, like on PostgreSQL, reject a null parameter without a type, and
+     *         record the types of the null parameters
+     */
+    private Connection typedNulls(Connection conn) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    try {
+                        Object result = method.invoke(conn, args);
+                        if (!"prepareStatement".equals(method.getName())) {
+                            return result;
+                        }
+                        PreparedStatement stmt = (PreparedStatement) result;
+                        return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] {PreparedStatement.class},
+                                (stmtProxy, stmtMethod, stmtArgs) -> {
+                                    if ("setObject".equals(stmtMethod.getName()) && stmtArgs.length == 2 && stmtArgs[1] == null) {
+                                        throw new SQLException("Could not determine data type of parameter $" + stmtArgs[0]);
+                                    }
+                                    if ("setNull".equals(stmtMethod.getName())) {
+                                        nullTypes.add((Integer) stmtArgs[1]);
+                                    }
+                                    try {
+                                        return stmtMethod.invoke(stmt, stmtArgs);
+                                    } catch (InvocationTargetException e) {
+                                        throw e.getCause();
+                                    }
+                                });
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private List<String> rows() throws Exception {
+        List<String> rows = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("select ID, NAME from PERSON order by NAME")) {
+            while (rs.next()) {
+                rows.add(rs.getObject(1) + ":" + rs.getString(2));
+            }
+        }
+        return rows;
+    }
+}
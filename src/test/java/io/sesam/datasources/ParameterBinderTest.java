@@ -0,0 +1,128 @@
+package io.sesam.datasources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+public class ParameterBinderTest {
+
+    private static final String JDBC_URL = "jdbc:h2:mem:since;DB_CLOSE_DELAY=-1";
+
+    private static Connection conn;
+    private static Mapper mapper;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        conn = DriverManager.getConnection(JDBC_URL, "sa", "");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("create table TS_SOURCE (ID int primary key, UPDATED timestamp)");
+            // row 3 is a nanosecond after row 2, so the since value must keep the full precision
+            stmt.execute("insert into TS_SOURCE values (1, '2016-01-01 00:00:01'), (2, '2016-01-01 00:00:02.25'),"
+                    + " (3, '2016-01-01 00:00:02.250000001'), (4, '2016-01-01 00:00:03'), (5, '2016-01-01 00:00:04.123456789')");
+            stmt.execute("create table LONG_SOURCE (ID int primary key, UPDATED bigint)");
+            stmt.execute("insert into LONG_SOURCE values (1, 10), (2, 20), (3, 21), (4, 30), (5, 40)");
+            stmt.execute("create table BIN_SOURCE (ID int primary key, UPDATED varbinary(8))");
+            stmt.execute("insert into BIN_SOURCE values (1, X'00000000000007D0'), (2, X'00000000000007D1'),"
+                    + " (3, X'00000000000007D2'), (4, X'0000000000000800'), (5, X'0000000000000A0F')");
+        }
+
+        File config = File.createTempFile("since", ".json");
+        config.deleteOnExit();
+        try (Writer writer = new FileWriter(config)) {
+            writer.write("{\"h2\": {\"jdbc-url\": \"" + JDBC_URL + "\", \"username\": \"sa\", \"password\": \"\", \"sources\": {"
+                    + "\"TS_SOURCE\": {\"primary-key\": \"ID\", \"updated-column\": \"UPDATED\"},"
+                    + "\"LONG_SOURCE\": {\"primary-key\": \"ID\", \"updated-column\": \"UPDATED\"},"
+                    + "\"BIN_SOURCE\": {\"primary-key\": \"ID\", \"updated-column\": \"UPDATED\"}}}}");
+        }
+        mapper = Mapper.load(config.getPath());
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        mapper.close();
+        conn.close();
+    }
+
+    @Test
+    public void continuesFromTimestampUpdated() throws Exception {
+        assertNextPage("TS_SOURCE", Arrays.asList("2016-01-01 00:00:01.0", "2016-01-01 00:00:02.25",
+                "2016-01-01 00:00:02.250000001", "2016-01-01 00:00:03.0", "2016-01-01 00:00:04.123456789"));
+    }
+
+    @Test
+    public void continuesFromBigintUpdated() throws Exception {
+        assertNextPage("LONG_SOURCE", Arrays.asList("10", "20", "21", "30", "40"));
+    }
+
+    @Test
+    public void continuesFromVarbinaryUpdated() throws Exception {
+        assertNextPage("BIN_SOURCE", Arrays.asList("00000000000007D0", "00000000000007D1", "00000000000007D2",
+                "0000000000000800", "0000000000000A0F"));
+    }
+
+    @Test
+    public void rejectsInvalidBooleans() throws Exception {
+        try (PreparedStatement stmt = conn.prepareStatement("select cast(? as boolean)")) {
+            for (String value : new String[] {"true", "FALSE", "1", " 0 "}) {
+                ParameterBinder.bind(stmt, 1, Types.BIT, value);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    assertEquals(value.trim().equals("1") || value.equals("true"), rs.getBoolean(1));
+                }
+            }
+            for (String value : new String[] {"yes", "", "2"}) {
+                try {
+                    ParameterBinder.bind(stmt, 1, Types.BOOLEAN, value);
+                    fail("Expected " + value + " to be rejected");
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    private static void assertNextPage(String sourceId, List<String> updated) throws Exception {
+        // the first page ends at the second row, the next page continues from its _updated
+        JsonArray all = read(sourceId, null);
+        assertEquals(updated, values(all, "_updated"));
+        String since = all.get(1).getAsJsonObject().get("_updated").getAsString();
+        JsonArray next = read(sourceId, since);
+        assertEquals(Arrays.asList("3", "4", "5"), values(next, "_id"));
+    }
+
+    private static JsonArray read(String sourceId, String since) throws Exception {
+        StringWriter writer = new StringWriter();
+        mapper.writeEntities(new JsonEntityEncoder(writer), "h2", sourceId, since, Collections.emptyList(), Collections.emptyMap());
+        return new JsonParser().parse(writer.toString()).getAsJsonArray();
+    }
+
+    private static List<String> values(JsonArray entities, String name) {
+        List<String> values = new ArrayList<>();
+        for (JsonElement entity : entities) {
+            values.add(entity.getAsJsonObject().get(name).getAsString());
+        }
+        return values;
+    }
+}
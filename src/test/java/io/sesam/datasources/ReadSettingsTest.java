@@ -0,0 +1,177 @@
+package io.sesam.datasources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ReadSettingsTest {
+
+    private static final String SQLSERVER = "jdbc:sqlserver://localhost;databaseName=x";
+    private static final String ORACLE = "jdbc:oracle:thin:@localhost:1521:x";
+    private static final String POSTGRESQL = "jdbc:postgresql://localhost/x";
+
+    @Test
+    public void mapsIsolationLevels() throws Exception {
+        assertIsolation(Connection.TRANSACTION_READ_UNCOMMITTED, ReadSettings.create(POSTGRESQL, "read-uncommitted", false, false, true));
+        assertIsolation(Connection.TRANSACTION_READ_COMMITTED, ReadSettings.create(POSTGRESQL, "read-committed", false, false, true));
+        assertIsolation(Connection.TRANSACTION_REPEATABLE_READ, ReadSettings.create(POSTGRESQL, "repeatable-read", false, false, true));
+        assertIsolation(Connection.TRANSACTION_SERIALIZABLE, ReadSettings.create(POSTGRESQL, "serializable", false, false, true));
+        assertSame(ReadSettings.DEFAULT, ReadSettings.create(POSTGRESQL, null, false, false, true));
+        try {
+            ReadSettings.create(POSTGRESQL, "chaos", false, false, true);
+            fail("Expected the isolation to be rejected");
+        } catch (RuntimeException e) {
+            assertEquals("Invalid 'isolation' property: chaos", e.getMessage());
+        }
+    }
+
+    @Test
+    public void mapsSnapshotPerDatabase() throws Exception {
+        assertIsolation(ReadSettings.SQLSERVER_TRANSACTION_SNAPSHOT, ReadSettings.create(SQLSERVER, "snapshot", false, false, true));
+        assertIsolation(ReadSettings.SQLSERVER_TRANSACTION_SNAPSHOT,
+                ReadSettings.create("jdbc:jtds:sqlserver://localhost/x", "snapshot", false, false, true));
+        assertIsolation(Connection.TRANSACTION_SERIALIZABLE, ReadSettings.create(ORACLE, "snapshot", false, false, true));
+        assertIsolation(Connection.TRANSACTION_REPEATABLE_READ, ReadSettings.create(POSTGRESQL, "snapshot", false, false, true));
+        assertIsolation(Connection.TRANSACTION_REPEATABLE_READ, ReadSettings.create("jdbc:h2:mem:x", "snapshot", false, false, true));
+    }
+
+    @Test
+    public void mapsNoLockPerDatabase() throws Exception {
+        // a table hint on sql server tables, and read uncommitted for queries
+        ReadSettings table = ReadSettings.create(SQLSERVER, null, false, true, true);
+        assertEquals("with (nolock)", table.getTableHint());
+        assertFalse(table.isTransactional());
+        ReadSettings query = ReadSettings.create(SQLSERVER, null, false, true, false);
+        assertNull(query.getTableHint());
+        assertIsolation(Connection.TRANSACTION_READ_UNCOMMITTED, query);
+
+        // oracle readers never take shared locks
+        assertSame(ReadSettings.DEFAULT, ReadSettings.create(ORACLE, null, false, true, true));
+
+        ReadSettings postgresql = ReadSettings.create(POSTGRESQL, null, false, true, true);
+        assertNull(postgresql.getTableHint());
+        assertIsolation(Connection.TRANSACTION_READ_UNCOMMITTED, postgresql);
+    }
+
+    @Test
+    public void rejectsSnapshotWithNoLock() throws Exception {
+        for (String jdbcUrl : Arrays.asList(SQLSERVER, ORACLE, POSTGRESQL)) {
+            try {
+                ReadSettings.create(jdbcUrl, "snapshot", false, true, true);
+                fail("Expected snapshot and nolock to be rejected on " + jdbcUrl);
+            } catch (RuntimeException e) {
+                assertEquals("The 'isolation' and 'nolock' properties can not be combined", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void restoresConnectionAfterRead() throws Exception {
+        FakeConnection fake = new FakeConnection();
+        Connection conn = fake.connection();
+        ReadSettings settings = ReadSettings.create(POSTGRESQL, "snapshot", true, false, true);
+        try (ReadSettings.Transaction tx = settings.begin(conn)) {
+            assertFalse(conn.getAutoCommit());
+            assertTrue(conn.isReadOnly());
+            assertEquals(Connection.TRANSACTION_REPEATABLE_READ, conn.getTransactionIsolation());
+            tx.commit();
+        }
+        assertRestored(conn);
+        assertEquals(Arrays.asList("setReadOnly", "setTransactionIsolation", "setAutoCommit", "commit", "setAutoCommit",
+                "setTransactionIsolation", "setReadOnly"), fake.calls);
+    }
+
+    @Test
+    public void restoresConnectionAfterFailedRead() throws Exception {
+        FakeConnection fake = new FakeConnection();
+        Connection conn = fake.connection();
+        ReadSettings settings = ReadSettings.create(SQLSERVER, "snapshot", true, false, true);
+        try (ReadSettings.Transaction tx = settings.begin(conn)) {
+            assertEquals(ReadSettings.SQLSERVER_TRANSACTION_SNAPSHOT, conn.getTransactionIsolation());
+            throw new SQLException("Query failed");
+        } catch (SQLException e) {
+            // expected
+        }
+        assertRestored(conn);
+        assertTrue(fake.calls.contains("rollback"));
+        assertFalse(fake.calls.contains("commit"));
+    }
+
+    @Test
+    public void leavesConnectionAloneWithoutTransaction() throws Exception {
+        FakeConnection fake = new FakeConnection();
+        try (ReadSettings.Transaction tx = ReadSettings.create(SQLSERVER, null, false, true, true).begin(fake.connection())) {
+            tx.commit();
+        }
+        assertEquals(Collections.emptyList(), fake.calls);
+    }
+
+    private static void assertIsolation(int isolation, ReadSettings settings) throws Exception {
+        assertTrue(settings.isTransactional());
+        FakeConnection fake = new FakeConnection();
+        try (ReadSettings.Transaction tx = settings.begin(fake.connection())) {
+            assertEquals(isolation, fake.isolation);
+        }
+        assertEquals(Connection.TRANSACTION_READ_COMMITTED, fake.isolation);
+    }
+
+    private static void assertRestored(Connection conn) throws SQLException {
+        assertTrue(conn.getAutoCommit());
+        assertFalse(conn.isReadOnly());
+        assertEquals(Connection.TRANSACTION_READ_COMMITTED, conn.getTransactionIsolation());
+    }
+
+    /**
+     * A connection that keeps its autocommit, isolation and read-only settings, and records the calls that change
+     * them or end a transaction.
+     */
+    private static class FakeConnection {
+        boolean autoCommit = true;
+        int isolation = Connection.TRANSACTION_READ_COMMITTED;
+        boolean readOnly;
+        final List<String> calls = new ArrayList<>();
+
+        Connection connection() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                        case "getAutoCommit":
+                            return autoCommit;
+                        case "getTransactionIsolation":
+                            return isolation;
+                        case "isReadOnly":
+                            return readOnly;
+                        case "setAutoCommit":
+                            autoCommit = (Boolean) args[0];
+                            break;
+                        case "setTransactionIsolation":
+                            isolation = (Integer) args[0];
+                            break;
+                        case "setReadOnly":
+                            readOnly = (Boolean) args[0];
+                            break;
+                        case "commit":
+                        case "rollback":
+                            break;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        calls.add(method.getName());
+                        return null;
+                    });
+        }
+    }
+}
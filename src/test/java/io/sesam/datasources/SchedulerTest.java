@@ -0,0 +1,181 @@
+package io.sesam.datasources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SchedulerTest {
+
+    @Test
+    public void sharesSlotsByWeight() throws Exception {
+        Scheduler scheduler = new Scheduler(1, 100, 5000);
+        scheduler.register("blocker", 0, 1);
+        scheduler.register("a", 0, 3);
+        scheduler.register("b", 0, 1);
+        Scheduler.Permit blocker = scheduler.acquire("blocker");
+
+        List<String> granted = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i=0; i < 8; i++) {
+            threads.add(startAcquire(scheduler, "a", granted));
+            threads.add(startAcquire(scheduler, "b", granted));
+        }
+        awaitQueued(scheduler, 16);
+        blocker.close();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        assertEquals(16, granted.size());
+        // the first half of the slots are shared 3:1
+        assertEquals(6, Collections.frequency(granted.subList(0, 8), "a"));
+        assertEquals(2, Collections.frequency(granted.subList(0, 8), "b"));
+    }
+
+    @Test
+    public void limitsConcurrentRequestsPerEndpoint() throws Exception {
+        Scheduler scheduler = new Scheduler(10, 10, 100);
+        scheduler.register("a", 1, 1);
+        scheduler.register("b", 0, 1);
+
+        Scheduler.Permit permit = scheduler.acquire("a");
+        // other endpoints still have free slots
+        scheduler.acquire("b").close();
+        try {
+            scheduler.acquire("a");
+            fail("Expected the endpoint limit to reject the request");
+        } catch (Scheduler.RejectedException e) {
+            assertEquals(1, e.getRetryAfter());
+        }
+        permit.close();
+        scheduler.acquire("a").close();
+    }
+
+    @Test
+    public void rejectsRightAwayWhenQueueIsFull() throws Exception {
+        Scheduler scheduler = new Scheduler(1, 0, 10000);
+        scheduler.register("a", 0, 1);
+
+        Scheduler.Permit permit = scheduler.acquire("a");
+        long start = System.nanoTime();
+        try {
+            scheduler.acquire("a");
+            fail("Expected a full queue to reject the request");
+        } catch (Scheduler.RejectedException e) {
+            assertEquals(10, e.getRetryAfter());
+        }
+        assertTrue(System.nanoTime() - start < 1000000000L);
+        permit.close();
+    }
+
+    @Test
+    public void removesWaitersThatTimeOut() throws Exception {
+        Scheduler scheduler = new Scheduler(1, 1, 100);
+        scheduler.register("a", 0, 1);
+
+        Scheduler.Permit permit = scheduler.acquire("a");
+        for (int i=0; i < 3; i++) {
+            // each timed out waiter gives back its queue slot, otherwise the next one would be rejected right away
+            long start = System.nanoTime();
+            try {
+                scheduler.acquire("a");
+                fail("Expected the request to time out");
+            } catch (Scheduler.RejectedException e) {
+                assertTrue(System.nanoTime() - start >= 90000000L);
+            }
+            assertEquals(0, scheduler.getQueued());
+        }
+        permit.close();
+
+        // and no slot was handed to a waiter that was gone
+        Scheduler.Permit next = scheduler.acquire("a");
+        try {
+            scheduler.acquire("a");
+            fail("Expected the only slot to be taken");
+        } catch (Scheduler.RejectedException e) {
+            // expected
+        }
+        next.close();
+    }
+
+    @Test
+    public void releasesPermitOnlyOnce() throws Exception {
+        Scheduler scheduler = new Scheduler(1, 0, 100);
+        scheduler.register("a", 0, 1);
+
+        Scheduler.Permit permit = scheduler.acquire("a");
+        permit.close();
+        permit.close();
+        Scheduler.Permit next = scheduler.acquire("a");
+        try {
+            scheduler.acquire("a");
+            fail("Expected a double close not to free an extra slot");
+        } catch (Scheduler.RejectedException e) {
+            // expected
+        }
+        next.close();
+    }
+
+    @Test
+    public void releasesSlotGrantedToInterruptedWaiter() throws Exception {
+        Scheduler scheduler = new Scheduler(1, 1, 5000);
+        scheduler.register("a", 0, 1);
+        Scheduler.Permit blocker = scheduler.acquire("a");
+
+        List<Object> results = Collections.synchronizedList(new ArrayList<>());
+        Thread waiter = new Thread(() -> {
+            try {
+                results.add(scheduler.acquire("a"));
+            } catch (Scheduler.RejectedException e) {
+                results.add(e);
+            }
+        });
+        waiter.start();
+        awaitQueued(scheduler, 1);
+        synchronized (scheduler) {
+            // the waiter wakes up for the interrupt, but only gets the monitor after it was granted the slot
+            waiter.interrupt();
+            Thread.sleep(100);
+            blocker.close();
+        }
+        waiter.join(5000);
+
+        assertEquals(1, results.size());
+        if (results.get(0) instanceof Scheduler.Permit) {
+            // the wait returned normally, which is also allowed for a waiter that is both notified and interrupted
+            ((Scheduler.Permit) results.get(0)).close();
+        }
+        // the slot is free again
+        long start = System.nanoTime();
+        scheduler.acquire("a").close();
+        assertTrue(System.nanoTime() - start < 1000000000L);
+    }
+
+    private static Thread startAcquire(Scheduler scheduler, String endpointId, List<String> granted) {
+        Thread thread = new Thread(() -> {
+            try (Scheduler.Permit permit = scheduler.acquire(endpointId)) {
+                granted.add(endpointId);
+            } catch (Scheduler.RejectedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitQueued(Scheduler scheduler, int queued) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.getQueued() < queued) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Only " + scheduler.getQueued() + " requests were queued");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
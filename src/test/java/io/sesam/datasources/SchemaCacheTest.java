@@ -0,0 +1,172 @@
+package io.sesam.datasources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.zaxxer.hikari.HikariConfig;
+
+public class SchemaCacheTest {
+
+    private static final String JDBC_URL = "jdbc:h2:mem:schema;DB_CLOSE_DELAY=-1";
+
+    private Connection conn;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        conn = DriverManager.getConnection(JDBC_URL, "sa", "");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("create table PERSON (ID int primary key, NAME varchar(100), HASH varchar(40))");
+            stmt.execute("create table PET (ID int primary key, OWNER int)");
+        }
+        file = File.createTempFile("schema", ".json");
+        file.deleteOnExit();
+        file.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("drop all objects");
+        }
+        conn.close();
+        file.delete();
+    }
+
+    @Test
+    public void readsTableMetadata() throws Exception {
+        TableMetadata metadata = TableMetadata.read(conn, "PERSON");
+        assertEquals(Arrays.asList("ID", "NAME", "HASH"), metadata.getColumnNames());
+        assertEquals(Integer.valueOf(Types.VARCHAR), metadata.getColumnTypes().get("NAME"));
+        assertEquals(Integer.valueOf(40), metadata.getColumnSize("HASH"));
+        assertNull(metadata.getColumnSize("AGE"));
+        assertEquals(Collections.singletonList("ID"), metadata.getPrimaryKeys());
+        assertTrue(metadata.isIntact());
+        assertEquals(metadata.getFingerprint(), TableMetadata.read(conn, "PERSON").getFingerprint());
+    }
+
+    @Test
+    public void loadsSavedTables() throws Exception {
+        save();
+        SchemaCache cache = new SchemaCache(file.getPath(), JDBC_URL);
+        TableMetadata person = cache.get("PERSON");
+        assertNotNull(person);
+        assertEquals(TableMetadata.read(conn, "PERSON").getFingerprint(), person.getFingerprint());
+        assertEquals(Integer.valueOf(40), person.getColumnSize("HASH"));
+        assertEquals(Collections.singletonList("ID"), person.getPrimaryKeys());
+        assertNotNull(cache.get("PET"));
+        assertNull(cache.get("OWNER"));
+    }
+
+    @Test
+    public void ignoresCacheOfOtherVersion() throws Exception {
+        save();
+        JsonObject content = readFile();
+        content.addProperty("version", SchemaCache.VERSION - 1);
+        writeFile(content.toString());
+        assertNull(new SchemaCache(file.getPath(), JDBC_URL).get("PERSON"));
+    }
+
+    @Test
+    public void ignoresCacheOfOtherDatabase() throws Exception {
+        save();
+        assertNull(new SchemaCache(file.getPath(), "jdbc:h2:mem:other").get("PERSON"));
+    }
+
+    @Test
+    public void ignoresCorruptFile() throws Exception {
+        writeFile("{\"version\": 2, \"jdbc-url\": ");
+        assertNull(new SchemaCache(file.getPath(), JDBC_URL).get("PERSON"));
+
+        writeFile("not a schema cache");
+        SchemaCache cache = new SchemaCache(file.getPath(), JDBC_URL);
+        assertNull(cache.get("PERSON"));
+
+        // a corrupt file is replaced on the next save
+        cache.put(TableMetadata.read(conn, "PERSON"));
+        cache.save();
+        assertNotNull(new SchemaCache(file.getPath(), JDBC_URL).get("PERSON"));
+    }
+
+    @Test
+    public void ignoresTamperedEntry() throws Exception {
+        save();
+        JsonObject content = readFile();
+        content.getAsJsonObject("tables").getAsJsonObject("PERSON").getAsJsonObject("column-sizes").addProperty("HASH", 20);
+        writeFile(content.toString());
+
+        SchemaCache cache = new SchemaCache(file.getPath(), JDBC_URL);
+        assertNull(cache.get("PERSON"));
+        assertNotNull(cache.get("PET"));
+        TableMetadata tampered = new Gson().fromJson(content.getAsJsonObject("tables").get("PERSON"), TableMetadata.class);
+        assertFalse(tampered.isIntact());
+    }
+
+    @Test
+    public void revalidationPicksUpChangedTable() throws Exception {
+        save();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("alter table PERSON add column AGE int");
+        }
+        SchemaCache cache = new SchemaCache(file.getPath(), JDBC_URL);
+        String stale = cache.get("PERSON").getFingerprint();
+        String pet = cache.get("PET").getFingerprint();
+
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(JDBC_URL);
+        config.setUsername("sa");
+        config.setMaximumPoolSize(1);
+        Map<String, Sink> sinks = new HashMap<>();
+        sinks.put("person", new MatcherSink("person", "PERSON", Collections.emptyList(), false,
+                Collections.emptyList(), Collections.emptyList(), "sesam-timestamp", 1000, "HASH"));
+        sinks.put("pet", new MatcherSink("pet", "PET", Collections.emptyList(), false,
+                Collections.emptyList(), Collections.emptyList(), "sesam-timestamp", 1000, null));
+        try (DataSystem system = new DataSystem(new ConnectionPool(config).newQuota("h2", 1), Collections.emptyMap(), sinks,
+                cache, new Scheduler(1, 0, 0), 0, 0)) {
+            system.revalidateSchema();
+        }
+
+        TableMetadata person = cache.get("PERSON");
+        assertTrue(person.getColumnNames().contains("AGE"));
+        assertFalse(stale.equals(person.getFingerprint()));
+        assertEquals(pet, cache.get("PET").getFingerprint());
+        // and the changed table is saved
+        assertEquals(person.getFingerprint(), new SchemaCache(file.getPath(), JDBC_URL).get("PERSON").getFingerprint());
+    }
+
+    private void save() throws Exception {
+        SchemaCache cache = new SchemaCache(file.getPath(), JDBC_URL);
+        cache.put(TableMetadata.read(conn, "PERSON"));
+        cache.put(TableMetadata.read(conn, "PET"));
+        cache.save();
+    }
+
+    private JsonObject readFile() throws Exception {
+        return new Gson().fromJson(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8), JsonObject.class);
+    }
+
+    private void writeFile(String content) throws Exception {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
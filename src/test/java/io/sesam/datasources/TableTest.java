@@ -0,0 +1,73 @@
+package io.sesam.datasources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TableTest {
+
+    private static final List<String> NONE = Collections.emptyList();
+
+    @Test
+    public void selectsAllColumnsWithoutProjection() {
+        Table table = new Table("PERSON", Collections.singletonList("ID"), "UPDATED", CellLimit.UNLIMITED, ReadSettings.DEFAULT, 0);
+        assertEquals("select * from PERSON", table.getQuery(null, NONE, NONE));
+        assertEquals("select * from PERSON where UPDATED > ?", table.getQuery("1", NONE, NONE));
+    }
+
+    @Test
+    public void bindsSinceBeforeFilters() {
+        Table table = new Table("PERSON", Collections.singletonList("ID"), "UPDATED", CellLimit.UNLIMITED, ReadSettings.DEFAULT, 0);
+        assertTrue(table.hasSinceParameter());
+        assertEquals("select NAME, ID, UPDATED from PERSON where UPDATED > ? and KIND = ? and AGE = ?",
+                table.getQuery("1", Arrays.asList("NAME", "ID", "UPDATED"), Arrays.asList("KIND", "AGE")));
+        assertEquals("select * from PERSON where KIND = ?", table.getQuery(null, NONE, Collections.singletonList("KIND")));
+        assertEquals("select NAME, ID from PERSON", table.getQuery(null, Arrays.asList("NAME", "ID"), NONE));
+    }
+
+    @Test
+    public void hasNoSinceParameterWithoutUpdatedColumn() {
+        Table table = new Table("PERSON", Collections.singletonList("ID"), null, CellLimit.UNLIMITED, ReadSettings.DEFAULT, 0);
+        assertFalse(table.hasSinceParameter());
+        assertEquals("select * from PERSON", table.getQuery("1", NONE, NONE));
+        assertEquals("select * from PERSON where KIND = ?", table.getQuery("1", NONE, Collections.singletonList("KIND")));
+    }
+
+    @Test
+    public void addsTableHint() {
+        ReadSettings nolock = ReadSettings.create("jdbc:sqlserver://localhost", null, false, true, true);
+        Table table = new Table("PERSON", Collections.singletonList("ID"), "UPDATED", CellLimit.UNLIMITED, nolock, 0);
+        assertEquals("select * from PERSON with (nolock) where UPDATED > ?", table.getQuery("1"));
+        assertEquals("select ID from PERSON with (nolock) where KIND = ?",
+                table.getQuery(null, Collections.singletonList("ID"), Collections.singletonList("KIND")));
+    }
+
+    @Test
+    public void queryRejectsProjection() {
+        Query query = new Query("select * from PERSON", "where UPDATED > ${since}", Collections.singletonList("ID"), "UPDATED",
+                CellLimit.UNLIMITED, ReadSettings.DEFAULT, 0);
+        assertTrue(query.hasSinceParameter());
+        assertEquals("select * from PERSON where UPDATED > ?", query.getQuery("1", NONE, NONE));
+        try {
+            query.getQuery(null, Collections.singletonList("ID"), NONE);
+            fail("Expected the projection to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            query.getQuery(null, NONE, Collections.singletonList("KIND"));
+            fail("Expected the filter to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertFalse(new Query("select * from PERSON", null, Collections.singletonList("ID"), "UPDATED",
+                CellLimit.UNLIMITED, ReadSettings.DEFAULT, 0).hasSinceParameter());
+    }
+}